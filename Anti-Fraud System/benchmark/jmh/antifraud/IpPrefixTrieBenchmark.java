@@ -0,0 +1,32 @@
+package antifraud;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+// Usage: gradle :Anti-Fraud_System-benchmark:jmh -PjmhInclude=IpPrefixTrieBenchmark
+// Suspicious IP range lookups against a trie of random /8../32 prefixes; the gc profiler should report no allocation
+@State(Scope.Benchmark)
+public class IpPrefixTrieBenchmark {
+
+    private static final int PROBES = 1 << 16;
+
+    @Param({"1000", "100000"})
+    public int prefixes;
+
+    private final IpPrefixTrie trie = new IpPrefixTrie();
+    private final int[] addresses = new int[PROBES];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < prefixes; i++) trie.add(random.nextInt(), 8 + random.nextInt(25));
+        for (int i = 0; i < PROBES; i++) addresses[i] = random.nextInt();
+    }
+
+    @Benchmark
+    public boolean matches() {
+        return trie.matches(addresses[next++ & (PROBES - 1)]);
+    }
+}
@@ -0,0 +1,152 @@
+package antifraud;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.util.unit.DataSize;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Usage: gradle :Anti-Fraud_System-benchmark:jmh -PjmhInclude=JournalBenchmark
+// The binary TransactionJournal against NDJSON in a TransactionLog (the write-behind format): appending one
+// transaction without fsync, and reading back a journal of the given size (as CompactTransaction and as Transaction)
+@State(Scope.Benchmark)
+public class JournalBenchmark {
+
+    private record Entry(long amount, String ip, String number, String region, LocalDateTime date, String result) {}
+
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+
+    @Param({"100000"})
+    public int records;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    private final ObjectWriter entryWriter = objectMapper.writerFor(Entry.class);
+    private final ObjectReader entryReader = objectMapper.readerFor(Entry.class);
+
+    private Path dir;
+    private TransactionJournal journal;
+    private TransactionLog log;
+    private TransactionJournal appendJournal;
+    private TransactionLog appendLog;
+    private Transaction next;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("antifraud-journal");
+        journal = openJournal("journal");
+        log = new TransactionLog(dir.resolve("log"), DataSize.ofMegabytes(64).toBytes());
+        List<Transaction> transactions = new ArrayList<>(records);
+        List<byte[]> lines = new ArrayList<>(records);
+        for (int i = 1; i <= records; i++) {
+            Transaction trans = transaction(i);
+            transactions.add(trans);
+            lines.add(encode(trans));
+        }
+        journal.appendAll(transactions);
+        log.write(lines);
+        next = transaction(records + 1);
+    }
+
+    // Fresh append targets each iteration so the files stay small
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        appendJournal = openJournal("append-journal-" + System.nanoTime());
+        appendLog = new TransactionLog(dir.resolve("append-log-" + System.nanoTime()), DataSize.ofMegabytes(64).toBytes());
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException {
+        appendJournal.close();
+        appendLog.close();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        log.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public void appendJournal() {
+        appendJournal.append(next);
+    }
+
+    @Benchmark
+    public long appendJson() {
+        return appendLog.write(List.of(encode(next)));
+    }
+
+    @Benchmark
+    public long replayJournal(Blackhole blackhole) throws IOException {
+        return journal.read(0, blackhole::consume);
+    }
+
+    @Benchmark
+    public long replayJournalEntities(Blackhole blackhole) throws IOException {
+        return journal.read(0, trans -> blackhole.consume(trans.toTransaction()));
+    }
+
+    @Benchmark
+    public void replayJson(Blackhole blackhole) throws IOException {
+        log.read(0, (record, position) -> blackhole.consume(decode(record)));
+    }
+
+    private TransactionJournal openJournal(String name) throws IOException {
+        TransactionJournal opened = new TransactionJournal(null, null, null, true, false, dir.resolve(name).toString(),
+                DataSize.ofMegabytes(64));
+        opened.open();
+        return opened;
+    }
+
+    private static Transaction transaction(int i) {
+        Transaction trans = new Transaction();
+        trans.setId(i);
+        trans.setAmount(1 + i % 2000);
+        trans.setIp("10.0." + (i >> 8 & 0xFF) + "." + (i & 0xFF));
+        trans.setNumber(String.format("4%014d0", i % 100_000));
+        trans.setRegion(REGIONS[i % REGIONS.length]);
+        trans.setDate(LocalDateTime.of(2022, 1, 1, 0, 0).plusSeconds(i));
+        trans.setResult(TransactionResult.values()[i % 3].name());
+        return trans;
+    }
+
+    private byte[] encode(Transaction trans) {
+        try {
+            return entryWriter.writeValueAsBytes(new Entry(trans.getAmount(), trans.getIp(), trans.getNumber(),
+                    trans.getRegion(), trans.getDate(), trans.getResult()));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Transaction decode(byte[] record) {
+        try {
+            Entry entry = entryReader.readValue(record);
+            Transaction trans = new Transaction();
+            trans.setAmount(entry.amount());
+            trans.setIp(entry.ip());
+            trans.setNumber(entry.number());
+            trans.setRegion(entry.region());
+            trans.setDate(entry.date());
+            trans.setResult(entry.result());
+            return trans;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package antifraud;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+// Usage: gradle :Anti-Fraud_System-benchmark:jmh [-PjmhInclude=ScoringBenchmark.validate]
+// Boots the application on an in-memory H2 seeded with generated data and times each stage of POST /api/antifraud/transaction.
+// "warm" runs the stage against the in-process caches, "cold" against the database queries they replace.
+@State(Scope.Benchmark)
+public class ScoringBenchmark {
+
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final String[] RESULTS = {"ALLOWED", "PROHIBITED", "MANUAL_PROCESSING"};
+    private static final LocalDateTime NOW = LocalDateTime.of(2023, 1, 1, 12, 0);
+    private static final String CARD = "4000003305160034";
+    private static final int BACKGROUND = 2_000;
+
+    @Param({"warm", "cold"})
+    public String cache;
+
+    @Param({"10", "1000", "10000"})
+    public int history;
+
+    @Param({"100", "100000"})
+    public int blacklist;
+
+    private ConfigurableApplicationContext context;
+    private TransactionScoringService scoringService;
+    private TransactionValidator transactionValidator;
+    private CorrelationWindow correlationWindow;
+    private VelocityFeatures velocityFeatures;
+    private CardLimitService cardLimitService;
+    private BlacklistCache blacklistCache;
+    private TransactionRepository transactionRepository;
+    private SusIpAddressRepository susIpAddressRepository;
+    private StolenCardRepository stolenCardRepository;
+
+    private TransactionRequest request;
+    private TransactionValidator.Validated validated;
+    private CardLimit limit;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(AntiFraudApplication.class)
+                .run("--server.port=0",
+                        "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN");
+        scoringService = context.getBean(TransactionScoringService.class);
+        transactionValidator = context.getBean(TransactionValidator.class);
+        correlationWindow = context.getBean(CorrelationWindow.class);
+        velocityFeatures = context.getBean(VelocityFeatures.class);
+        cardLimitService = context.getBean(CardLimitService.class);
+        blacklistCache = context.getBean(BlacklistCache.class);
+        transactionRepository = context.getBean(TransactionRepository.class);
+        susIpAddressRepository = context.getBean(SusIpAddressRepository.class);
+        stolenCardRepository = context.getBean(StolenCardRepository.class);
+
+        try {
+            seed(context.getBean(JdbcTemplate.class));
+            blacklistCache.reload();
+            correlationWindow.rebuild();
+            velocityFeatures.rebuild();
+            cardLimitService.rebuild();
+        } catch (RuntimeException e) {
+            // JMH skips the tear down of a failed set up, and the embedded Tomcat would keep the fork alive
+            context.close();
+            throw e;
+        }
+
+        request = new TransactionRequest();
+        request.setAmount(150);
+        request.setIp("192.168.1.1");
+        request.setNumber(CARD);
+        request.setRegion("ECA");
+        request.setDate(NOW);
+        validated = transactionValidator.validate(request);
+        limit = cardLimitService.getLimit(CARD);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public TransactionValidator.Validated validate() {
+        return transactionValidator.validate(request);
+    }
+
+    @Benchmark
+    public long correlation() {
+        LocalDateTime start = NOW.minusHours(1);
+        if (cache.equals("warm")) {
+            return correlationWindow.countDistinctRegions(validated.region(), validated.packedNumber(), CARD, start, NOW)
+                    + correlationWindow.countUniqueIp(validated.ip(), start, NOW);
+        }
+        return transactionRepository.countDistinctRegions(request.getRegion(), CARD, start, NOW)
+                + transactionRepository.countUniqueIp(request.getIp(), start, NOW);
+    }
+
+    @Benchmark
+    public boolean blacklists() {
+        if (cache.equals("warm")) {
+            return blacklistCache.isSuspiciousIp(request.getIp()) | blacklistCache.isStolenCard(CARD);
+        }
+        return susIpAddressRepository.existsByIp(request.getIp()) | stolenCardRepository.existsByNumber(CARD);
+    }
+
+    // Cold replays the card's feedback history, which is how limits were derived before they were stored
+    @Benchmark
+    public long limits() {
+        if (cache.equals("warm")) {
+            return cardLimitService.getLimit(CARD).getAllowed();
+        }
+        long allowed = CardLimitService.DEFAULT_ALLOWED;
+        for (Transaction trans : transactionRepository.findByNumberOrderById(CARD)) {
+            if (trans.getFeedback().isEmpty()) continue;
+            allowed = cardLimitService.calculateNewLimitForAllowed(allowed, trans.getAmount(),
+                    trans.getFeedback(), trans.getResult());
+        }
+        return allowed;
+    }
+
+    // Scoring and response building without the insert
+    @Benchmark
+    public TransactionScoringService.Scored score() {
+        return scoringService.score(validated, limit);
+    }
+
+    // Everything postTransaction does below HTTP, including the insert and the window update
+    @Benchmark
+    public TransactionResponse process() {
+        return scoringService.process(request);
+    }
+
+    private void seed(JdbcTemplate jdbc) {
+        Random random = new Random(42);
+        List<Transaction> transactions = new ArrayList<>(history + BACKGROUND);
+        for (int i = 0; i < history; i++) {
+            transactions.add(transaction(random, CARD, NOW.minusSeconds(random.nextInt(2 * 3600))));
+        }
+        for (int i = 0; i < BACKGROUND; i++) {
+            transactions.add(transaction(random, "4" + (100_000_000_000_000L + i),
+                    NOW.minusSeconds(random.nextInt(2 * 3600))));
+        }
+        transactionRepository.saveAll(transactions);
+
+        List<Object[]> ips = new ArrayList<>(blacklist);
+        List<Object[]> cards = new ArrayList<>(blacklist);
+        for (int i = 1; i <= blacklist; i++) {
+            ips.add(new Object[]{-i, "10." + (i >> 16 & 255) + "." + (i >> 8 & 255) + "." + (i & 255)});
+            cards.add(new Object[]{-i, String.valueOf(5_000_000_000_000_000L + i)});
+        }
+        jdbc.batchUpdate("INSERT INTO sus_ip_address (id, ip) VALUES (?, ?)", ips);
+        jdbc.batchUpdate("INSERT INTO stolen_card (id, number) VALUES (?, ?)", cards);
+    }
+
+    private static Transaction transaction(Random random, String number, LocalDateTime date) {
+        Transaction trans = new Transaction();
+        trans.setAmount(1 + random.nextInt(2000));
+        trans.setIp("172.16." + random.nextInt(4) + "." + random.nextInt(256));
+        trans.setNumber(number);
+        trans.setRegion(REGIONS[random.nextInt(REGIONS.length)]);
+        trans.setDate(date);
+        trans.setResult(RESULTS[random.nextInt(RESULTS.length)]);
+        if (random.nextInt(5) == 0) trans.setFeedback(RESULTS[random.nextInt(RESULTS.length)]);
+        return trans;
+    }
+}
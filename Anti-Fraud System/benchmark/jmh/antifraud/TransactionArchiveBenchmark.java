@@ -0,0 +1,108 @@
+package antifraud;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+// Usage: gradle :Anti-Fraud_System-benchmark:jmh -PjmhInclude=TransactionArchiveBenchmark
+// Queries over a columnar TransactionArchive of a month of days: a card's history, a card's history over one day
+// and a page of everything after an id. The setup prints the archive's bytes per transaction against the same
+// transactions as gzipped NDJSON.
+@State(Scope.Benchmark)
+public class TransactionArchiveBenchmark {
+
+    private static final LocalDate FIRST_DAY = LocalDate.of(2022, 1, 1);
+    private static final int DAYS = 30;
+
+    @Param({"20000"})
+    public int perDay;
+
+    @Param({"100000"})
+    public int cards;
+
+    private Path dir;
+    private TransactionArchive archive;
+    private final Random random = new Random(42);
+    private long lastId;
+
+    @Setup
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("antifraud-archive");
+        archive = new TransactionArchive(dir.toString(), new SimpleMeterRegistry());
+        ObjectWriter json = new ObjectMapper().registerModule(new JavaTimeModule()).writer();
+        Path ndjson = dir.resolve("compare.ndjson.gz");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(ndjson))) {
+            for (int d = 0; d < DAYS; d++) {
+                LocalDate day = FIRST_DAY.plusDays(d);
+                List<CompactTransaction> rows = new ArrayList<>(perDay);
+                for (int i = 0; i < perDay; i++) rows.add(transaction(++lastId, day));
+                // The order TransactionRetention reads them in
+                rows.sort(Comparator.comparing(CompactTransaction::numberText).thenComparingLong(CompactTransaction::id));
+                try (TransactionArchive.Day archived = archive.append(day)) {
+                    for (CompactTransaction trans : rows) {
+                        archived.write(trans);
+                        out.write(json.writeValueAsBytes(trans.toTransaction()));
+                        out.write('\n');
+                    }
+                }
+            }
+        }
+        long columnar;
+        try (Stream<Path> files = Files.list(dir)) {
+            columnar = files.filter(file -> file.toString().endsWith(".seg")).mapToLong(file -> file.toFile().length())
+                    .sum();
+        }
+        System.out.printf("%nbytes per transaction: columnar %.1f, gzipped NDJSON %.1f%n",
+                (double) columnar / lastId, (double) Files.size(ndjson) / lastId);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public List<Transaction> cardHistory() throws IOException {
+        return archive.find(card(random.nextInt(cards)), null, null, 0, 1000);
+    }
+
+    @Benchmark
+    public List<Transaction> cardDay() throws IOException {
+        LocalDateTime from = FIRST_DAY.plusDays(random.nextInt(DAYS)).atStartOfDay();
+        return archive.find(card(random.nextInt(cards)), from, from.plusDays(1), 0, 1000);
+    }
+
+    @Benchmark
+    public List<Transaction> page() throws IOException {
+        return archive.find(null, null, null, random.nextLong(lastId), 100);
+    }
+
+    private CompactTransaction transaction(long id, LocalDate day) {
+        String number = card(random.nextInt(cards));
+        long second = day.atStartOfDay().toEpochSecond(ZoneOffset.UTC) + random.nextInt(1440) * 60L;
+        return new CompactTransaction(id, 1 + random.nextInt(2000), 0x0A000000 | random.nextInt(1 << 16),
+                CardNumbers.pack(number), null, (byte) random.nextInt(7), (byte) (random.nextInt(10) == 0 ? 1 : 0),
+                (byte) -1, second, 0);
+    }
+
+    private static String card(int i) {
+        return String.format("4%014d0", i);
+    }
+}
@@ -0,0 +1,85 @@
+package antifraud;
+
+import org.apache.commons.validator.routines.InetAddressValidator;
+import org.apache.commons.validator.routines.checkdigit.LuhnCheckDigit;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+
+// Usage: gradle :Anti-Fraud_System-benchmark:jmh -PjmhInclude=ValidationBenchmark
+// TransactionValidator against the commons-validator / DateTimeFormatter checks it replaced, on the same requests
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+    private static final List<String> REGION_CODEX = List.of("EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA");
+
+    // valid passes every check; the others fail at the ip, the card number and the date (the last check)
+    @Param({"valid", "bad-ip", "bad-number", "bad-date"})
+    public String input;
+
+    private final TransactionValidator transactionValidator = new TransactionValidator();
+    private TransactionRequest request;
+
+    @Setup
+    public void setUp() {
+        request = new TransactionRequest();
+        request.setAmount(150);
+        request.setIp(input.equals("bad-ip") ? "192.168.01.1" : "192.168.1.1");
+        request.setNumber(input.equals("bad-number") ? "4000003305160035" : "4000003305160034");
+        request.setRegion("MENA");
+        request.setDate(input.equals("bad-date")
+                ? LocalDateTime.of(2022, 1, 22, 16, 4, 30)
+                : LocalDateTime.of(2022, 1, 22, 16, 4));
+    }
+
+    @Benchmark
+    public boolean current() {
+        try {
+            return transactionValidator.validate(request) != null;
+        } catch (ResponseStatusException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public boolean previous() {
+        try {
+            validate(request);
+            return true;
+        } catch (ResponseStatusException e) {
+            return false;
+        }
+    }
+
+    // Verbatim from the scoring code before TransactionValidator
+    private static void validate(TransactionRequest request) {
+        InetAddressValidator validator = InetAddressValidator.getInstance();
+        if (!validator.isValidInet4Address(request.getIp())) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Wrong ip format");
+
+        if (!LuhnCheckDigit.LUHN_CHECK_DIGIT.isValid(request.getNumber())) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Wrong card number format");
+
+        if (!REGION_CODEX.contains(request.getRegion())) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Invalid region format");
+
+        if (request.getDate() == null || isDateValid(request.getDate())) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Invalid date format");
+    }
+
+    private static boolean isDateValid(LocalDateTime date) {
+
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
+
+        try {
+            LocalDateTime parseDate = LocalDateTime.parse(date.toString(), format);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package antifraud;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+// Usage: gradle :Anti-Fraud_System-benchmark:jmh -PjmhInclude=VelocityFeaturesBenchmark
+// Recording a transaction and reading a card's four windows, over cards that each see a transaction an hour
+@State(Scope.Benchmark)
+public class VelocityFeaturesBenchmark {
+
+    private static final int PROBES = 1 << 20;
+    private static final long START = LocalDateTime.of(2022, 1, 22, 0, 0).toEpochSecond(ZoneOffset.UTC);
+
+    @Param({"1000", "100000"})
+    public int cards;
+
+    private VelocityFeatures features;
+    private final long[] numbers = new long[PROBES];
+    private final int[] ips = new int[PROBES];
+    private final long[] counts = new long[VelocityFeatures.Window.values().length];
+    private final long[] amounts = new long[counts.length];
+    private long second;
+    private long next;
+
+    @Setup
+    public void setUp() {
+        // The recorded dates run on from 2022 as fast as the benchmark goes, so no horizon may cut them off
+        features = new VelocityFeatures(emptyRepository(), new TransactionClock(Duration.ofDays(365_000)));
+        features.rebuild();
+        Random random = new Random(42);
+        for (int i = 0; i < PROBES; i++) {
+            numbers[i] = CardNumbers.pack(String.valueOf(4000000000000000L + random.nextInt(cards)));
+            ips[i] = random.nextInt(cards);
+        }
+        // A day of history, so every key has its day ring filled
+        while (next < 24L * cards) record(next++);
+    }
+
+    @Benchmark
+    public CompactTransaction record() {
+        return record(next++);
+    }
+
+    @Benchmark
+    public long[] readCard() {
+        int i = (int) next++ & (PROBES - 1);
+        features.readCard(numbers[i], null, LocalDateTime.ofEpochSecond(second, 0, ZoneOffset.UTC), counts, amounts);
+        return counts;
+    }
+
+    private CompactTransaction record(long n) {
+        int i = (int) n & (PROBES - 1);
+        second = START + n * 3_600 / cards;
+        CompactTransaction trans = new CompactTransaction(0, 100 + i, ips[i], numbers[i], null, (byte) 0, (byte) 0,
+                (byte) -1, second, 0);
+        features.record(trans);
+        return trans;
+    }
+
+    // Only findLatestDate is called, by the rebuild that marks the store ready
+    private static TransactionRepository emptyRepository() {
+        return (TransactionRepository) Proxy.newProxyInstance(TransactionRepository.class.getClassLoader(),
+                new Class<?>[]{TransactionRepository.class}, (proxy, method, args) -> null);
+    }
+}
@@ -0,0 +1,53 @@
+package antifraud;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Usage: authCacheBenchmark [threads] [seconds]
+public class AuthCacheBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        Duration duration = Duration.ofSeconds(args.length > 1 ? Long.parseLong(args[1]) : 10);
+
+        PasswordEncoder encoder = new BCryptPasswordEncoder();
+        AppUser user = new AppUser();
+        user.setUsername("merchant");
+        user.setPassword(encoder.encode("secret"));
+        user.setAuthority("MERCHANT");
+        user.setLocked(false);
+        UserDetailsService users = username -> new AppUserAdapter(user);
+
+        for (boolean cached : new boolean[]{false, true}) {
+            var provider = new CachingAuthenticationProvider(users, encoder, cached, Duration.ofMinutes(5), 10_000);
+            double rate = run(provider, threads, duration);
+            System.out.printf("cache %-8s %,12.0f requests/sec (%d threads)%n", cached ? "on" : "off", rate, threads);
+        }
+    }
+
+    private static double run(CachingAuthenticationProvider provider, int threads, Duration duration)
+            throws InterruptedException {
+        LongAdder done = new LongAdder();
+        long deadline = System.nanoTime() + duration.toNanos();
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated("merchant", "secret"));
+                    done.increment();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+        return done.sum() / (duration.toNanos() / 1e9);
+    }
+}
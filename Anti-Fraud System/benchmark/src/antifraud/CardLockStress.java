@@ -0,0 +1,131 @@
+package antifraud;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Usage: cardLockStress [threads] [cards] [transactions]
+// Posts the transactions from many threads at once with the card locks on and off, then replays what was stored,
+// in id order, one by one into a fresh database and counts the results that differ from that serial execution.
+// All transactions share one ip and stay under the allowed amount, so only region-correlation (a per-card check)
+// can tell the orders apart. Exits with 1 if any result differs with the locks on.
+public class CardLockStress {
+
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final LocalDateTime START = LocalDateTime.of(2022, 1, 22, 16, 0);
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(8, Runtime.getRuntime().availableProcessors());
+        int cards = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+
+        List<TransactionRequest> requests = workload(cards, count);
+        // Unmeasured, so neither mode pays for the JIT
+        try (ConfigurableApplicationContext warmUp = start(true)) {
+            post(warmUp.getBean(TransactionScoringService.class), requests, threads);
+        }
+
+        boolean consistent = true;
+        for (boolean locked : new boolean[]{false, true}) {
+            ConfigurableApplicationContext context = start(locked);
+            List<Transaction> stored;
+            double rate;
+            try {
+                rate = post(context.getBean(TransactionScoringService.class), requests, threads);
+                stored = context.getBean(TransactionRepository.class).findAllByOrderById();
+            } finally {
+                context.close();
+            }
+            int mismatches = replay(stored);
+            if (locked && mismatches > 0) consistent = false;
+            System.out.printf("locks %-3s %,10.0f transactions/sec   %,6d of %,d differ from serial (%d threads, %d cards)%n",
+                    locked ? "on" : "off", rate, mismatches, stored.size(), threads, cards);
+        }
+        if (!consistent) System.exit(1);
+    }
+
+    private static double post(TransactionScoringService scoringService, List<TransactionRequest> requests,
+                               int threads) throws InterruptedException {
+        AtomicInteger next = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                for (int at; (at = next.getAndIncrement()) < requests.size(); ) scoringService.process(requests.get(at));
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) worker.join();
+        return requests.size() / ((System.nanoTime() - started) / 1e9);
+    }
+
+    private static int replay(List<Transaction> stored) {
+        ConfigurableApplicationContext context = start(true);
+        try {
+            TransactionScoringService scoringService = context.getBean(TransactionScoringService.class);
+            int mismatches = 0;
+            for (Transaction trans : stored) {
+                TransactionRequest request = new TransactionRequest();
+                request.setAmount(trans.getAmount());
+                request.setIp(trans.getIp());
+                request.setNumber(trans.getNumber());
+                request.setRegion(trans.getRegion());
+                request.setDate(trans.getDate());
+                if (!scoringService.process(request).getResult().equals(trans.getResult())) mismatches++;
+            }
+            return mismatches;
+        } finally {
+            context.close();
+        }
+    }
+
+    private static ConfigurableApplicationContext start(boolean locked) {
+        return new SpringApplicationBuilder(AntiFraudApplication.class).run(
+                "--server.port=0",
+                "--antifraud.card-locks.enabled=" + locked,
+                "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+    }
+
+    // Round-robin over the cards, each card's transactions at least 15 minutes apart (whole minutes, the validator
+    // refuses seconds), so it has up to three others in the hour before each and region-correlation gives all results
+    private static List<TransactionRequest> workload(int cards, int count) {
+        Random random = new Random(42);
+        Duration step = Duration.ofMinutes(Math.max(1, 15 / cards));
+        List<TransactionRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TransactionRequest request = new TransactionRequest();
+            request.setAmount(1 + random.nextInt(200));
+            request.setIp("10.0.0.1");
+            request.setNumber(cardNumber(i % cards));
+            request.setRegion(REGIONS[random.nextInt(REGIONS.length)]);
+            request.setDate(START.plus(step.multipliedBy(i)));
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    // 16 digits: 4, the card index, then the Luhn check digit
+    private static String cardNumber(int id) {
+        String body = "4" + String.format("%014d", id);
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            int digit = body.charAt(body.length() - 1 - i) - '0';
+            if (i % 2 == 0) {
+                digit *= 2;
+                if (digit > 9) digit -= 9;
+            }
+            sum += digit;
+        }
+        return body + (10 - sum % 10) % 10;
+    }
+}
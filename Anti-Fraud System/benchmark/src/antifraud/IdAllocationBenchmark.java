@@ -0,0 +1,119 @@
+package antifraud;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Usage: idAllocationBenchmark [threads] [transactions] [batch size]
+// Transactions stored per second at id allocation sizes 1, 50 and 1000, posted from many threads at once one by one
+// (one insert per transaction) and in batches (one JDBC batch per request). Each thread posts for its own cards, so
+// the card locks do not serialise them and what is shared is the connection pool and the transaction sequence.
+public class IdAllocationBenchmark {
+
+    private static final int[] ALLOCATION_SIZES = {1, 50, 1000};
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final LocalDateTime START = LocalDateTime.of(2022, 1, 22, 16, 0);
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Math.max(8, Runtime.getRuntime().availableProcessors());
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 50_000;
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        List<TransactionRequest> requests = workload(threads, count);
+        // Unmeasured, so the first size does not pay for the JIT
+        try (ConfigurableApplicationContext warmUp = start(50)) {
+            post(warmUp.getBean(TransactionScoringService.class), requests, threads, 1);
+        }
+
+        for (int allocationSize : ALLOCATION_SIZES) {
+            double single, batched;
+            try (ConfigurableApplicationContext context = start(allocationSize)) {
+                single = post(context.getBean(TransactionScoringService.class), requests, threads, 1);
+            }
+            try (ConfigurableApplicationContext context = start(allocationSize)) {
+                batched = post(context.getBean(TransactionScoringService.class), requests, threads, batchSize);
+            }
+            System.out.printf("allocation size %4d   %,10.0f transactions/sec one by one   %,10.0f in batches of %d (%d threads)%n",
+                    allocationSize, single, batched, batchSize, threads);
+        }
+    }
+
+    // Thread t posts requests t, t + threads, ... so each keeps to its own cards
+    private static double post(TransactionScoringService scoringService, List<TransactionRequest> requests,
+                               int threads, int batchSize) throws InterruptedException {
+        AtomicInteger failures = new AtomicInteger();
+        List<Thread> workers = new ArrayList<>();
+        long started = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            int first = i;
+            Thread worker = new Thread(() -> {
+                List<TransactionRequest> batch = new ArrayList<>(batchSize);
+                for (int at = first; at < requests.size(); at += threads) {
+                    if (batchSize == 1) {
+                        scoringService.process(requests.get(at));
+                        continue;
+                    }
+                    batch.add(requests.get(at));
+                    if (batch.size() == batchSize || at + threads >= requests.size()) {
+                        for (BatchTransactionResponse response : scoringService.processBatch(batch)) {
+                            if (response.getStatus() != 200) failures.incrementAndGet();
+                        }
+                        batch.clear();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) worker.join();
+        double rate = requests.size() / ((System.nanoTime() - started) / 1e9);
+        if (failures.get() > 0) throw new IllegalStateException(failures.get() + " transactions were rejected");
+        return rate;
+    }
+
+    private static ConfigurableApplicationContext start(int allocationSize) {
+        return new SpringApplicationBuilder(AntiFraudApplication.class).run(
+                "--server.port=0",
+                "--antifraud.id.allocation-size=" + allocationSize,
+                "--spring.datasource.url=jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+    }
+
+    // Eight cards per thread, a minute apart, so every transaction scores and is stored
+    private static List<TransactionRequest> workload(int threads, int count) {
+        Random random = new Random(42);
+        List<TransactionRequest> requests = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            TransactionRequest request = new TransactionRequest();
+            request.setAmount(1 + random.nextInt(2000));
+            request.setIp("10.0." + random.nextInt(256) + "." + random.nextInt(256));
+            request.setNumber(cardNumber(i % threads + threads * random.nextInt(8)));
+            request.setRegion(REGIONS[random.nextInt(REGIONS.length)]);
+            request.setDate(START.plusMinutes(i));
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    // 16 digits: 4, the card index, then the Luhn check digit
+    private static String cardNumber(int id) {
+        String body = "4" + String.format("%014d", id);
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            int digit = body.charAt(body.length() - 1 - i) - '0';
+            if (i % 2 == 0) {
+                digit *= 2;
+                if (digit > 9) digit -= 9;
+            }
+            sum += digit;
+        }
+        return body + (10 - sum % 10) % 10;
+    }
+}
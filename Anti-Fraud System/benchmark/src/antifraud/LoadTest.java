@@ -0,0 +1,204 @@
+package antifraud;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+// Usage: loadTest [platform|virtual] [merchants] [seconds]
+// Boots the application on a file H2 in the given antifraud.threads mode, keeps that many merchants posting
+// transactions back to back and reports throughput and latency percentiles. Client and server share the JVM,
+// so compare the two modes with each other rather than with production numbers. virtual needs Java 21; run it with
+// -Djdk.tracePinnedThreads=short to see which calls pin a carrier.
+public class LoadTest {
+
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final Duration WARM_UP = Duration.ofSeconds(10);
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0] : "platform";
+        int merchants = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 30);
+
+        Path dir = Files.createTempDirectory("antifraud-load");
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AntiFraudApplication.class).run(
+                "--server.port=0",
+                "--antifraud.threads=" + mode,
+                "--spring.datasource.url=jdbc:h2:file:" + dir.resolve("load"),
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+        ExecutorService callbacks = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            URI base = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(callbacks)
+                    .build();
+            String merchantAuth = setUpUsers(client, base);
+
+            long measureFrom = System.nanoTime() + WARM_UP.toNanos();
+            long stopAt = measureFrom + duration.toNanos();
+            List<Merchant> running = new ArrayList<>();
+            List<CompletableFuture<Void>> finished = new ArrayList<>();
+            for (int i = 0; i < merchants; i++) {
+                Merchant merchant = new Merchant(client, base, merchantAuth, i, measureFrom, stopAt);
+                running.add(merchant);
+                finished.add(merchant.start());
+            }
+            CompletableFuture.allOf(finished.toArray(new CompletableFuture<?>[0])).join();
+            report(mode, merchants, duration, running);
+        } finally {
+            context.close();
+            callbacks.shutdown();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private static String setUpUsers(HttpClient client, URI base) throws Exception {
+        post(client, base.resolve("/api/auth/user"), null,
+                "{\"name\":\"Admin\",\"username\":\"admin\",\"password\":\"secret\"}");
+        post(client, base.resolve("/api/auth/user"), null,
+                "{\"name\":\"Merchant\",\"username\":\"merchant\",\"password\":\"secret\"}");
+        HttpRequest unlock = HttpRequest.newBuilder(base.resolve("/api/auth/access"))
+                .header("Authorization", basic("admin", "secret"))
+                .header("Content-Type", "application/json")
+                .PUT(HttpRequest.BodyPublishers.ofString("{\"username\":\"merchant\",\"operation\":\"UNLOCK\"}"))
+                .build();
+        client.send(unlock, HttpResponse.BodyHandlers.discarding());
+        return basic("merchant", "secret");
+    }
+
+    private static void post(HttpClient client, URI uri, String auth, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body));
+        if (auth != null) request.header("Authorization", auth);
+        client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void report(String mode, int merchants, Duration duration, List<Merchant> running) {
+        long errors = 0;
+        int total = 0;
+        for (Merchant merchant : running) {
+            errors += merchant.errors;
+            total += merchant.count;
+        }
+        long[] latencies = new long[total];
+        int offset = 0;
+        for (Merchant merchant : running) {
+            System.arraycopy(merchant.latencies, 0, latencies, offset, merchant.count);
+            offset += merchant.count;
+        }
+        Arrays.sort(latencies);
+        System.out.printf("%-8s %,6d merchants %,10d requests %,8d errors %,10.0f req/s   p50 %8.2f ms   p99 %8.2f ms   p99.9 %8.2f ms%n",
+                mode, merchants, total, errors, total / (double) duration.toSeconds(),
+                percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 0.999));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) return Double.NaN;
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1e6;
+    }
+
+    // One merchant with its own card, posting the next transaction as soon as the previous one is answered
+    private static class Merchant {
+
+        private final HttpClient client;
+        private final URI uri;
+        private final String auth;
+        private final String number;
+        private final Random random;
+        private final long measureFrom;
+        private final long stopAt;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        // Only touched by the callback of the merchant's previous request, one at a time
+        private long[] latencies = new long[1024];
+        private int count;
+        private long errors;
+
+        Merchant(HttpClient client, URI base, String auth, int id, long measureFrom, long stopAt) {
+            this.client = client;
+            this.uri = base.resolve("/api/antifraud/transaction");
+            this.auth = auth;
+            this.number = cardNumber(id);
+            this.random = new Random(id);
+            this.measureFrom = measureFrom;
+            this.stopAt = stopAt;
+        }
+
+        CompletableFuture<Void> start() {
+            next();
+            return done;
+        }
+
+        private void next() {
+            long started = System.nanoTime();
+            if (started >= stopAt) {
+                done.complete(null);
+                return;
+            }
+            client.sendAsync(request(), HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                if (started >= measureFrom) {
+                    if (error != null || response.statusCode() != 200) errors++;
+                    else record(System.nanoTime() - started);
+                }
+                next();
+            });
+        }
+
+        private HttpRequest request() {
+            String body = "{\"amount\":" + (1 + random.nextInt(2000))
+                    + ",\"ip\":\"10.0." + random.nextInt(256) + "." + random.nextInt(256) + "\""
+                    + ",\"number\":\"" + number + "\""
+                    + ",\"region\":\"" + REGIONS[random.nextInt(REGIONS.length)] + "\""
+                    + ",\"date\":\"" + LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES) + "\"}";
+            return HttpRequest.newBuilder(uri)
+                    .header("Authorization", auth)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+        }
+
+        private void record(long nanos) {
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = nanos;
+        }
+
+        // 16 digits: 4, the merchant id, then the Luhn check digit
+        private static String cardNumber(int id) {
+            String body = "4" + String.format("%014d", id);
+            int sum = 0;
+            for (int i = 0; i < body.length(); i++) {
+                int digit = body.charAt(body.length() - 1 - i) - '0';
+                if (i % 2 == 0) {
+                    digit *= 2;
+                    if (digit > 9) digit -= 9;
+                }
+                sum += digit;
+            }
+            return body + (10 - sum % 10) % 10;
+        }
+    }
+}
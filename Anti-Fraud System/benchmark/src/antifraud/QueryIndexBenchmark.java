@@ -0,0 +1,160 @@
+package antifraud;
+
+import org.flywaydb.core.Flyway;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+// Usage: queryIndexBenchmark [rows] [iterations]
+// Seeds the pre-index schema (V1), times the hot queries, migrates to the latest schema and times them again
+public class QueryIndexBenchmark {
+
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final String[] RESULTS = {"ALLOWED", "PROHIBITED", "MANUAL_PROCESSING"};
+    private static final LocalDateTime EPOCH = LocalDateTime.of(2022, 1, 1, 0, 0);
+    private static final int SPAN_MINUTES = 365 * 24 * 60;
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 3_000_000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int cards = Math.max(rows / 20, 1);
+
+        Path dir = Files.createTempDirectory("antifraud-bench");
+        String url = "jdbc:h2:file:" + dir.resolve("bench");
+        Flyway flyway = Flyway.configure().dataSource(url, "", "").target("1").load();
+        flyway.migrate();
+
+        try (Connection connection = DriverManager.getConnection(url, "", "")) {
+            long started = System.nanoTime();
+            seed(connection, rows, cards);
+            System.out.printf("seeded %,d transactions over %,d cards in %.1fs%n", rows, cards, seconds(started));
+            time(connection, "before", iterations, cards, false);
+        }
+
+        long started = System.nanoTime();
+        Flyway.configure().dataSource(url, "", "").load().migrate();
+        System.out.printf("migrated to the latest schema in %.1fs%n", seconds(started));
+
+        try (Connection connection = DriverManager.getConnection(url, "", "")) {
+            time(connection, "after", iterations, cards, true);
+        }
+
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static void seed(Connection connection, int rows, int cards) throws SQLException {
+        connection.setAutoCommit(false);
+        Random random = new Random(42);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO transaction (id, amount, date, feedback, ip, number, region, result) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+            for (int id = 1; id <= rows; id++) {
+                insert.setLong(1, id);
+                insert.setLong(2, 1 + random.nextInt(3000));
+                insert.setTimestamp(3, Timestamp.valueOf(EPOCH.plusMinutes((long) id * SPAN_MINUTES / rows)));
+                insert.setString(4, random.nextInt(10) == 0 ? RESULTS[random.nextInt(3)] : null);
+                insert.setString(5, ip(random.nextInt(50_000)));
+                insert.setString(6, card(random.nextInt(cards)));
+                insert.setString(7, REGIONS[random.nextInt(REGIONS.length)]);
+                insert.setString(8, RESULTS[random.nextInt(3)]);
+                insert.addBatch();
+                if (id % 10_000 == 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                }
+            }
+            insert.executeBatch();
+        }
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO stolen_card (id, number) VALUES (?, ?)")) {
+            for (int id = 1; id <= cards / 10; id++) {
+                insert.setLong(1, id);
+                insert.setString(2, card(id * 10));
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    private static void time(Connection connection, String label, int iterations, int cards, boolean compact)
+            throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE");
+        }
+        Random random = new Random(7);
+        long regions = 0, ips = 0, byNumber = 0, stolen = 0;
+
+        try (PreparedStatement regionQuery = connection.prepareStatement(
+                "SELECT COUNT(DISTINCT region) FROM transaction WHERE region <> ? AND number = ? AND date BETWEEN ? AND ?");
+             PreparedStatement ipQuery = connection.prepareStatement(
+                     "SELECT COUNT(DISTINCT ip) FROM transaction WHERE ip <> ? AND date BETWEEN ? AND ?");
+             PreparedStatement numberQuery = connection.prepareStatement(
+                     "SELECT * FROM transaction WHERE number = ?");
+             PreparedStatement stolenQuery = connection.prepareStatement(
+                     "SELECT COUNT(*) FROM stolen_card WHERE number = ?")) {
+
+            for (int i = 0; i < iterations; i++) {
+                String number = card(random.nextInt(cards));
+                LocalDateTime end = EPOCH.plusMinutes(random.nextInt(SPAN_MINUTES));
+                Timestamp from = Timestamp.valueOf(end.minusHours(1));
+                Timestamp to = Timestamp.valueOf(end);
+                int region = random.nextInt(REGIONS.length);
+
+                if (compact) regionQuery.setShort(1, (short) region);
+                else regionQuery.setString(1, REGIONS[region]);
+                regionQuery.setString(2, number);
+                regionQuery.setTimestamp(3, from);
+                regionQuery.setTimestamp(4, to);
+                regions += run(regionQuery);
+
+                ipQuery.setString(1, ip(random.nextInt(50_000)));
+                ipQuery.setTimestamp(2, from);
+                ipQuery.setTimestamp(3, to);
+                ips += run(ipQuery);
+
+                numberQuery.setString(1, number);
+                byNumber += run(numberQuery);
+
+                stolenQuery.setString(1, number);
+                stolen += run(stolenQuery);
+            }
+        }
+
+        System.out.printf("%-6s countDistinctRegions %10.3f ms%n", label, regions / 1e6 / iterations);
+        System.out.printf("%-6s countUniqueIp        %10.3f ms%n", label, ips / 1e6 / iterations);
+        System.out.printf("%-6s findByNumber         %10.3f ms%n", label, byNumber / 1e6 / iterations);
+        System.out.printf("%-6s existsByNumber       %10.3f ms%n", label, stolen / 1e6 / iterations);
+    }
+
+    private static long run(PreparedStatement query) throws SQLException {
+        long started = System.nanoTime();
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next()) {
+                rs.getObject(1);
+            }
+        }
+        return System.nanoTime() - started;
+    }
+
+    private static String card(int index) {
+        return String.format("4000%012d", index);
+    }
+
+    private static String ip(int index) {
+        return "10." + (index >>> 16) + "." + ((index >>> 8) & 0xFF) + "." + (index & 0xFF);
+    }
+
+    private static double seconds(long started) {
+        return (System.nanoTime() - started) / 1e9;
+    }
+}
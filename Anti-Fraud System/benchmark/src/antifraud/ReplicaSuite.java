@@ -0,0 +1,243 @@
+package antifraud;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+// Usage: replicaSuite
+// Checks of antifraud.replica.enabled against a local pair of databases: two embedded PostgreSQL clusters, the second
+// a streaming standby of the first, started from a copy of the primary's data directory taken after a clean shutdown.
+// Reads of the history and listings go to the replica while it keeps up and to the primary while its replay is
+// paused, and scoring and mutations stay on the primary throughout; the hikaricp metrics of the two pools show
+// where the load went. Like initdb it will not run as root. Exits with 1 if any check fails.
+public class ReplicaSuite {
+
+    private static final String CARD = "4000003305160034";
+    private static final Pattern TRANSACTION_ID = Pattern.compile("\"transactionId\":(\\d+)");
+    private static final Pattern VALUE = Pattern.compile("\"value\":([-0-9.Ee]+|NaN)");
+    // Seconds, as the lag gauge is read through the actuator
+    private static final double MAX_STALENESS = 2;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final List<String> failures = new ArrayList<>();
+    private URI base;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("antifraud-replica");
+        Path primaryData = dir.resolve("primary");
+        Path replicaData = dir.resolve("replica");
+        EmbeddedPostgres.builder().setDataDirectory(primaryData).setCleanDataDirectory(false).start().close();
+        copy(primaryData, replicaData);
+        EmbeddedPostgres primary = null;
+        EmbeddedPostgres replica = null;
+        ReplicaSuite suite = new ReplicaSuite();
+        try {
+            primary = EmbeddedPostgres.builder().setDataDirectory(primaryData).setCleanDataDirectory(false).start();
+            Files.deleteIfExists(replicaData.resolve("postmaster.pid"));
+            Files.writeString(replicaData.resolve("standby.signal"), "");
+            Files.writeString(replicaData.resolve("postgresql.auto.conf"), "primary_conninfo = 'host=localhost port="
+                    + primary.getPort() + " user=postgres'\n", StandardOpenOption.APPEND);
+            replica = EmbeddedPostgres.builder().setDataDirectory(replicaData).setCleanDataDirectory(false).start();
+            String replicaUrl = replica.getJdbcUrl("postgres", "postgres");
+            try (ConfigurableApplicationContext context = start(primary.getJdbcUrl("postgres", "postgres"),
+                    replicaUrl, dir)) {
+                suite.base = URI.create("http://localhost:"
+                        + context.getEnvironment().getProperty("local.server.port"));
+                suite.run(replicaUrl);
+            }
+        } finally {
+            if (replica != null) replica.close();
+            if (primary != null) primary.close();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+        System.out.printf("replica: %d failed%n", suite.failures.size());
+        suite.failures.forEach(failure -> System.out.println("  " + failure));
+        if (!suite.failures.isEmpty()) System.exit(1);
+    }
+
+    private static ConfigurableApplicationContext start(String url, String replicaUrl, Path dir) {
+        return new SpringApplicationBuilder(AntiFraudApplication.class).run(
+                "--server.port=0",
+                "--spring.profiles.active=postgres",
+                "--spring.datasource.url=" + url,
+                "--spring.datasource.username=postgres",
+                "--spring.datasource.password=",
+                "--antifraud.replica.enabled=true",
+                "--antifraud.replica.url=" + replicaUrl,
+                "--antifraud.replica.username=postgres",
+                "--antifraud.replica.max-staleness=" + (long) MAX_STALENESS + "s",
+                "--antifraud.replica.check-interval=200ms",
+                "--antifraud.archive.dir=" + dir.resolve("archive"),
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+    }
+
+    private void run(String replicaUrl) throws Exception {
+        expect("register admin", call("POST", "/api/auth/user", null,
+                "{\"name\":\"A\",\"username\":\"admin\",\"password\":\"p\"}"), 201, "\"role\":\"ADMINISTRATOR\"");
+        expect("register merchant", call("POST", "/api/auth/user", null,
+                "{\"name\":\"M\",\"username\":\"merch\",\"password\":\"p\"}"), 201, "\"role\":\"MERCHANT\"");
+        expect("register support", call("POST", "/api/auth/user", null,
+                "{\"name\":\"S\",\"username\":\"supp\",\"password\":\"p\"}"), 201, "\"role\":\"MERCHANT\"");
+        expect("unlock merchant", call("PUT", "/api/auth/access", "admin",
+                "{\"username\":\"merch\",\"operation\":\"UNLOCK\"}"), 200, "unlocked");
+        expect("make support", call("PUT", "/api/auth/role", "admin",
+                "{\"username\":\"supp\",\"role\":\"SUPPORT\"}"), 200, "\"role\":\"SUPPORT\"");
+        expect("unlock support", call("PUT", "/api/auth/access", "admin",
+                "{\"username\":\"supp\",\"operation\":\"UNLOCK\"}"), 200, "unlocked");
+        expect("list ip", call("POST", "/api/antifraud/suspicious-ip", "supp", "{\"ip\":\"192.168.1.66\"}"),
+                200, "\"ip\":\"192.168.1.66\"");
+        for (int i = 0; i < 3; i++) {
+            expect("scored " + i, post(100, "16:0" + i), 200, "\"result\":\"ALLOWED\"");
+        }
+
+        check("replica fresh", awaitLag(true), "a lag within " + MAX_STALENESS + "s, got " + lag());
+        // Fresh allows the replica to be behind by up to the staleness, so wait until it has the posts
+        check("replica replayed", awaitReplay(replicaUrl, System.currentTimeMillis()), "a later heartbeat");
+        double replicaReads = metric("antifraud.replica.reads", "route:replica");
+        double primaryAcquired = metric("hikaricp.connections.acquire", "pool:primary");
+        List<Long> history = history();
+        check("history from replica", history.size() == 3, "3 transactions, got " + history);
+        expect("users from replica", call("GET", "/api/auth/list", "admin", null), 200, "\"username\":\"supp\"");
+        expect("ips from replica", call("GET", "/api/antifraud/suspicious-ip", "supp", null), 200,
+                "\"ip\":\"192.168.1.66\"");
+        expect("cards from replica", call("GET", "/api/antifraud/stolencard", "supp", null), 200, "[");
+        check("routed to replica", metric("antifraud.replica.reads", "route:replica") == replicaReads + 4,
+                replicaReads + 4 + " replica reads, got " + metric("antifraud.replica.reads", "route:replica"));
+        check("replica pool used", metric("hikaricp.connections.acquire", "pool:replica") > 0,
+                "replica pool acquisitions");
+        double afterReads = metric("hikaricp.connections.acquire", "pool:primary");
+        // Only the heartbeat written in the meantime, a write every 200 ms
+        check("primary pool spared", afterReads - primaryAcquired < 20,
+                "few primary acquisitions, got " + (afterReads - primaryAcquired));
+
+        try (Connection connection = DriverManager.getConnection(replicaUrl, "postgres", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("SELECT pg_wal_replay_pause()");
+            expect("scored while behind", post(100, "16:03"), 200, "\"result\":\"ALLOWED\"");
+            check("replica stale", awaitLag(false), "a lag over " + MAX_STALENESS + "s, got " + lag());
+            double primaryReads = metric("antifraud.replica.reads", "route:primary");
+            history = history();
+            check("history from primary", history.size() == 4, "4 transactions, got " + history);
+            check("routed to primary", metric("antifraud.replica.reads", "route:primary") == primaryReads + 1,
+                    primaryReads + 1 + " primary reads, got " + metric("antifraud.replica.reads", "route:primary"));
+            statement.execute("SELECT pg_wal_replay_resume()");
+        }
+
+        check("replica caught up", awaitLag(true), "a lag within " + MAX_STALENESS + "s, got " + lag());
+        check("replica replayed again", awaitReplay(replicaUrl, System.currentTimeMillis()), "a later heartbeat");
+        replicaReads = metric("antifraud.replica.reads", "route:replica");
+        history = history();
+        check("history back on replica", history.size() == 4
+                && metric("antifraud.replica.reads", "route:replica") == replicaReads + 1,
+                "4 transactions from the replica, got " + history);
+        expect("feedback on primary", call("PUT", "/api/antifraud/transaction", "supp",
+                "{\"transactionId\":" + history.get(0) + ",\"feedback\":\"MANUAL_PROCESSING\"}"), 200,
+                "\"feedback\":\"MANUAL_PROCESSING\"");
+    }
+
+    // Waits up to 30 seconds for the replica to be fresh, or stale
+    private boolean awaitLag(boolean fresh) throws Exception {
+        for (long deadline = System.nanoTime() + 30_000_000_000L; System.nanoTime() < deadline; Thread.sleep(100)) {
+            double lag = lag();
+            if (fresh ? lag <= MAX_STALENESS : !(lag <= MAX_STALENESS)) return true;
+        }
+        return false;
+    }
+
+    // Waits up to 30 seconds for the replica to replay a heartbeat written after the time
+    private static boolean awaitReplay(String replicaUrl, long after) throws Exception {
+        try (Connection connection = DriverManager.getConnection(replicaUrl, "postgres", "");
+             Statement statement = connection.createStatement()) {
+            for (long deadline = System.nanoTime() + 30_000_000_000L; System.nanoTime() < deadline;
+                 Thread.sleep(100)) {
+                try (ResultSet beat = statement.executeQuery("SELECT beat FROM replica_heartbeat WHERE id = 1")) {
+                    if (beat.next() && beat.getLong(1) > after) return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private double lag() throws Exception {
+        return metric("antifraud.replica.lag", null);
+    }
+
+    private List<Long> history() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        Matcher matcher = TRANSACTION_ID.matcher(call("GET", "/api/antifraud/history/" + CARD, "supp", null).body);
+        while (matcher.find()) ids.add(Long.parseLong(matcher.group(1)));
+        return ids;
+    }
+
+    // The first measurement of the meter, NaN when it has none
+    private double metric(String name, String tag) throws Exception {
+        Response response = call("GET", "/actuator/metrics/" + name + (tag == null ? "" : "?tag=" + tag), "supp",
+                null);
+        Matcher matcher = VALUE.matcher(response.body);
+        return response.status == 200 && matcher.find() ? Double.parseDouble(matcher.group(1)) : Double.NaN;
+    }
+
+    private Response post(long amount, String time) throws Exception {
+        return call("POST", "/api/antifraud/transaction", "merch", "{\"amount\":" + amount
+                + ",\"ip\":\"192.168.1.1\",\"number\":\"" + CARD + "\",\"region\":\"EAP\",\"date\":\"2022-01-22T"
+                + time + ":00\"}");
+    }
+
+    private Response call(String method, String path, String user, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body));
+        if (body != null) request.header("Content-Type", "application/json");
+        if (user != null) {
+            request.header("Authorization", "Basic " + Base64.getEncoder()
+                    .encodeToString((user + ":p").getBytes(StandardCharsets.UTF_8)));
+        }
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        return new Response(response.statusCode(), response.body().replaceAll("\\s", ""));
+    }
+
+    private void expect(String name, Response response, int status, String fragment) {
+        check(name, response.status == status && response.body.contains(fragment),
+                status + " with " + fragment + ", got " + response.status + " " + response.body);
+    }
+
+    private void check(String name, boolean passed, String expected) {
+        System.out.printf("%-24s %s%n", name, passed ? "ok" : "FAILED");
+        if (!passed) failures.add(name + ": expected " + expected);
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (Stream<Path> files = Files.walk(from)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, to.resolve(from.relativize(file).toString()));
+            }
+        }
+    }
+
+    private record Response(int status, String body) {}
+}
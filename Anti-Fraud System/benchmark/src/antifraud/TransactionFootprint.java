@@ -0,0 +1,85 @@
+package antifraud;
+
+import org.openjdk.jol.info.GraphLayout;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Usage: transactionFootprint [transactions]
+// Retained heap per cached transaction, measured with JOL: the String/LocalDateTime entries the correlation window
+// used to hold against CompactTransaction, for a single entry and for a whole window of that many transactions
+// spread over its two hours. Strings are built fresh per transaction, as Jackson does for each request.
+public class TransactionFootprint {
+
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA"};
+    private static final LocalDateTime START = LocalDateTime.of(2022, 1, 22, 16, 0);
+
+    // The entry type CorrelationWindow held before CompactTransaction
+    private record StringEntry(LocalDateTime date, String number, String ip, String region) {}
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Random random = new Random(42);
+        List<Transaction> transactions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) transactions.add(transaction(random, i, count));
+
+        List<StringEntry> before = new ArrayList<>(count);
+        List<CompactTransaction> after = new ArrayList<>(count);
+        for (Transaction trans : transactions) {
+            before.add(new StringEntry(trans.getDate(), trans.getNumber(), trans.getIp(), trans.getRegion()));
+            after.add(CompactTransaction.of(trans));
+        }
+        System.out.printf("entry   before %6.1f bytes   after %6.1f bytes%n",
+                perEntry(before, count), perEntry(after, count));
+
+        // The same maps as the old window, keyed and filled the way it did
+        NavigableMap<LocalDateTime, List<StringEntry>> timeline = new TreeMap<>();
+        Map<String, List<StringEntry>> byCard = new HashMap<>();
+        Map<String, Integer> ipCounts = new HashMap<>();
+        for (StringEntry entry : before) {
+            timeline.computeIfAbsent(entry.date(), d -> new ArrayList<>(1)).add(entry);
+            byCard.computeIfAbsent(entry.number(), n -> new ArrayList<>()).add(entry);
+            ipCounts.merge(entry.ip(), 1, Integer::sum);
+        }
+        long oldWindow = GraphLayout.parseInstance(timeline, byCard, ipCounts).totalSize();
+
+        ObjectProvider<TransactionWriter> noWriter =
+                new StaticListableBeanFactory().getBeanProvider(TransactionWriter.class);
+        CorrelationWindow window = new CorrelationWindow(emptyRepository(), new TransactionClock(Duration.ofMinutes(5)),
+                noWriter, Duration.ofHours(2));
+        window.rebuild();
+        for (CompactTransaction trans : after) window.record(trans);
+        // Not counting the empty bean factory behind the writer lookup
+        long newWindow = GraphLayout.parseInstance(window).totalSize()
+                - GraphLayout.parseInstance(noWriter).totalSize();
+        System.out.printf("window  before %6.1f bytes   after %6.1f bytes   per transaction, %,d transactions%n",
+                oldWindow / (double) count, newWindow / (double) count, count);
+    }
+
+    private static double perEntry(List<?> entries, int count) {
+        GraphLayout all = GraphLayout.parseInstance(entries.toArray());
+        GraphLayout array = GraphLayout.parseInstance((Object) new Object[count]);
+        return (all.totalSize() - array.totalSize()) / (double) count;
+    }
+
+    private static Transaction transaction(Random random, int i, int count) {
+        Transaction trans = new Transaction();
+        trans.setAmount(1 + random.nextInt(2000));
+        trans.setIp(new String("10.0." + random.nextInt(256) + "." + random.nextInt(256)));
+        trans.setNumber(new String(String.format("4%014d0", random.nextInt(count / 10 + 1))));
+        trans.setRegion(new String(REGIONS[random.nextInt(REGIONS.length)]));
+        trans.setDate(START.plusNanos(Duration.ofHours(2).toNanos() / count * i).withNano(0));
+        trans.setResult("ALLOWED");
+        return trans;
+    }
+
+    // Only findLatestDate is called, by the rebuild that marks the window ready
+    private static TransactionRepository emptyRepository() {
+        return (TransactionRepository) Proxy.newProxyInstance(TransactionRepository.class.getClassLoader(),
+                new Class<?>[]{TransactionRepository.class}, (proxy, method, args) -> null);
+    }
+}
@@ -0,0 +1,32 @@
+package antifraud;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+@Component
+public class AmountRule implements FraudRule {
+
+    private static final Set<RiskInput> INPUTS = EnumSet.of(RiskInput.CARD_LIMIT, RiskInput.OTHER_REASONS);
+
+    @Override
+    public FraudReason reason() {
+        return FraudReason.AMOUNT;
+    }
+
+    @Override
+    public Set<RiskInput> inputs() {
+        return INPUTS;
+    }
+
+    // Once another rule has fired the transaction cannot be ALLOWED, so only the manual limit is left to check
+    @Override
+    public TransactionResult evaluate(RiskContext context) {
+        long amount = context.getRequest().getAmount();
+        CardLimit limit = context.getLimit();
+        if (context.getReasons().isEmpty() && amount <= limit.getAllowed()) return null;
+        if (amount > limit.getManual()) return TransactionResult.PROHIBITED;
+        return context.getReasons().isEmpty() ? TransactionResult.MANUAL_PROCESSING : null;
+    }
+}
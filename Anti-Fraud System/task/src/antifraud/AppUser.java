@@ -1,12 +1,16 @@
 package antifraud;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 @Entity
 public class AppUser {
 
     @Id
-    @GeneratedValue()
+    @GeneratedValue(generator = "app_user_seq")
+    @GenericGenerator(name = "app_user_seq", strategy = "antifraud.PooledLoSequenceGenerator",
+            parameters = @Parameter(name = "sequence_name", value = "app_user_seq"))
     private long id;
     private String name;
     private String username;
@@ -0,0 +1,43 @@
+package antifraud;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchTransactionResponse {
+
+    private final int status;
+    private final String result;
+    private final String info;
+    private final String error;
+
+    private BatchTransactionResponse(int status, String result, String info, String error) {
+        this.status = status;
+        this.result = result;
+        this.info = info;
+        this.error = error;
+    }
+
+    public static BatchTransactionResponse scored(TransactionResponse response) {
+        return new BatchTransactionResponse(200, response.getResult(), response.getInfo(), null);
+    }
+
+    public static BatchTransactionResponse rejected(int status, String error) {
+        return new BatchTransactionResponse(status, null, null, error);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public String getInfo() {
+        return info;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
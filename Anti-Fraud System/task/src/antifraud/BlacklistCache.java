@@ -0,0 +1,184 @@
+package antifraud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// The blacklists in memory. Suspicious IP ranges (CIDR prefixes) live in a trie beside the exact addresses.
+@Component
+public class BlacklistCache {
+
+    private final SusIpAddressRepository susIpAddressRepository;
+    private final StolenCardRepository stolenCardRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final IntHashSet ips = new IntHashSet(1024);
+    private final IpPrefixTrie ranges = new IpPrefixTrie();
+    private final LongHashSet cards = new LongHashSet(1024);
+    // Card numbers too long (or not plain ASCII digits) to pack into a long
+    private final Set<String> unpackedCards = new HashSet<>();
+
+    private final Counter ipHits;
+    private final Counter ipMisses;
+    private final Counter cardHits;
+    private final Counter cardMisses;
+
+    public BlacklistCache(SusIpAddressRepository susIpAddressRepository, StolenCardRepository stolenCardRepository,
+                          MeterRegistry registry) {
+        this.susIpAddressRepository = susIpAddressRepository;
+        this.stolenCardRepository = stolenCardRepository;
+
+        ipHits = lookups(registry, "suspicious-ip", "hit");
+        ipMisses = lookups(registry, "suspicious-ip", "miss");
+        cardHits = lookups(registry, "stolen-card", "hit");
+        cardMisses = lookups(registry, "stolen-card", "miss");
+        Gauge.builder("antifraud.blacklist.size", this, BlacklistCache::ipCount)
+                .tag("list", "suspicious-ip").register(registry);
+        Gauge.builder("antifraud.blacklist.size", this, BlacklistCache::cardCount)
+                .tag("list", "stolen-card").register(registry);
+    }
+
+    @PostConstruct
+    public void reload() {
+        lock.writeLock().lock();
+        try {
+            ips.clear();
+            ranges.clear();
+            cards.clear();
+            unpackedCards.clear();
+            susIpAddressRepository.findAll().forEach(ip -> addIpLocked(ip.getIp()));
+            stolenCardRepository.findAll().forEach(card -> addCardLocked(card.getNumber()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isSuspiciousIp(String ip) {
+        long address = Ipv4.parse(ip);
+        if (address == Ipv4.INVALID) {
+            ipMisses.increment();
+            return false;
+        }
+        return isSuspiciousIp((int) address);
+    }
+
+    // For callers that already parsed the address with Ipv4.parse
+    public boolean isSuspiciousIp(int address) {
+        boolean found;
+        lock.readLock().lock();
+        try {
+            found = ips.contains(address) || ranges.matches(address);
+        } finally {
+            lock.readLock().unlock();
+        }
+        (found ? ipHits : ipMisses).increment();
+        return found;
+    }
+
+    public boolean isStolenCard(String number) {
+        return isStolenCard(CardNumbers.pack(number), number);
+    }
+
+    // For callers that already packed the number with CardNumbers.pack
+    public boolean isStolenCard(long packed, String number) {
+        boolean found;
+        lock.readLock().lock();
+        try {
+            found = packed == CardNumbers.UNPACKABLE ? unpackedCards.contains(number) : cards.contains(packed);
+        } finally {
+            lock.readLock().unlock();
+        }
+        (found ? cardHits : cardMisses).increment();
+        return found;
+    }
+
+    // A single address or a CIDR range, as stored
+    public void addIp(String ip) {
+        lock.writeLock().lock();
+        try {
+            addIpLocked(ip);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A single address or a CIDR range, as stored
+    public void removeIp(String ip) {
+        Ipv4.Prefix prefix = Ipv4.parsePrefix(ip);
+        if (prefix == null) return;
+        int address = prefix.address();
+        lock.writeLock().lock();
+        try {
+            if (prefix.length() < 32) ranges.remove(address, prefix.length());
+            else ips.remove(address);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void addCard(String number) {
+        lock.writeLock().lock();
+        try {
+            addCardLocked(number);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void removeCard(String number) {
+        long packed = CardNumbers.pack(number);
+        lock.writeLock().lock();
+        try {
+            if (packed == CardNumbers.UNPACKABLE) unpackedCards.remove(number);
+            else cards.remove(packed);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addIpLocked(String ip) {
+        Ipv4.Prefix prefix = Ipv4.parsePrefix(ip);
+        if (prefix == null) return;
+        int address = prefix.address();
+        if (prefix.length() < 32) ranges.add(address, prefix.length());
+        else ips.add(address);
+    }
+
+    private void addCardLocked(String number) {
+        long packed = CardNumbers.pack(number);
+        if (packed == CardNumbers.UNPACKABLE) unpackedCards.add(number);
+        else cards.add(packed);
+    }
+
+    private double ipCount() {
+        lock.readLock().lock();
+        try {
+            return ips.size() + ranges.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private double cardCount() {
+        lock.readLock().lock();
+        try {
+            return cards.size() + unpackedCards.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static Counter lookups(MeterRegistry registry, String list, String outcome) {
+        return Counter.builder("antifraud.blacklist.lookups")
+                .tag("list", list)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+}
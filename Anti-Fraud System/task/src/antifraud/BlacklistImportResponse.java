@@ -0,0 +1,4 @@
+package antifraud;
+
+// Entries of a bulk upload: newly listed, already listed (or repeated in the upload) and rejected by validation
+public record BlacklistImportResponse(long accepted, long duplicate, long invalid) {}
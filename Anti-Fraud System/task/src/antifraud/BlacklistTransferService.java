@@ -0,0 +1,205 @@
+package antifraud;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+// Bulk loads and dumps of the stolen card and suspicious IP lists, for hotlists of millions of entries. Uploads are
+// one entry per line, CSV (the first column; a header naming the column is skipped) or NDJSON objects shaped like
+// the single-entry requests. They are read in chunks: each chunk is validated, de-duplicated against itself and the
+// table, and inserted with one JDBC batch in its own transaction, so a failed upload keeps the chunks before it.
+@Service
+public class BlacklistTransferService {
+
+    // Times a chunk is checked and inserted again after a single-entry POST listed one of its entries in between
+    private static final int INSERT_ATTEMPTS = 5;
+
+    public enum Blacklist {
+        STOLEN_CARD("stolen_card", "number", "stolen_card_seq",
+                number -> CardNumbers.isValidLuhn(number) ? number : null),
+        SUSPICIOUS_IP("sus_ip_address", "ip", "sus_ip_address_seq", ip -> {
+            Ipv4.Prefix prefix = Ipv4.parsePrefix(ip);
+            return prefix == null ? null : prefix.canonical();
+        });
+
+        private final String table;
+        private final String column;
+        private final String sequence;
+        // The entry as stored, or null if it is not valid
+        private final UnaryOperator<String> canonical;
+
+        Blacklist(String table, String column, String sequence, UnaryOperator<String> canonical) {
+            this.table = table;
+            this.column = column;
+            this.sequence = sequence;
+            this.canonical = canonical;
+        }
+    }
+
+    public enum Format { CSV, NDJSON }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BlacklistCache blacklistCache;
+    private final ObjectMapper objectMapper;
+    private final int chunkSize;
+    // Each sequence value is a block of this many ids from it up, as PooledLoSequenceGenerator takes them
+    private final int allocationSize;
+
+    public BlacklistTransferService(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                    BlacklistCache blacklistCache, ObjectMapper objectMapper,
+                                    @Value("${antifraud.blacklist.import.chunk-size:1000}") int chunkSize,
+                                    @Value("${antifraud.id.allocation-size:50}") int allocationSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blacklistCache = blacklistCache;
+        this.objectMapper = objectMapper;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.allocationSize = allocationSize;
+    }
+
+    public BlacklistImportResponse importEntries(Blacklist list, Format format, InputStream in) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Set<String> chunk = new LinkedHashSet<>();
+        long accepted = 0, duplicate = 0, invalid = 0;
+        boolean first = true;
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (line.isBlank()) continue;
+            String value = format == Format.CSV ? csvValue(line) : ndjsonValue(line, list.column);
+            if (first && format == Format.CSV && list.column.equalsIgnoreCase(value)) {
+                first = false;
+                continue;
+            }
+            first = false;
+            if (value != null) value = list.canonical.apply(value);
+            if (value == null) invalid++;
+            else if (!chunk.add(value)) duplicate++;
+            if (chunk.size() == chunkSize) {
+                int inserted = insert(list, chunk, accepted);
+                accepted += inserted;
+                duplicate += chunk.size() - inserted;
+                chunk.clear();
+            }
+        }
+        int inserted = insert(list, chunk, accepted);
+        accepted += inserted;
+        duplicate += chunk.size() - inserted;
+        return new BlacklistImportResponse(accepted, duplicate, invalid);
+    }
+
+    // Rows in id order, as the list endpoints return them, read off a cursor rather than loaded into a list
+    @Transactional(readOnly = true)
+    public void export(Blacklist list, Format format, OutputStream out) throws IOException {
+        OutputStream buffered = new BufferedOutputStream(out, 1 << 16);
+        JsonGenerator json = format == Format.NDJSON ? objectMapper.getFactory().createGenerator(buffered) : null;
+        // Lines end in '\n' instead of the space Jackson puts between root values
+        if (json != null) json.setRootValueSeparator(null);
+        Writer csv = format == Format.CSV ? new OutputStreamWriter(buffered, StandardCharsets.UTF_8) : null;
+        if (csv != null) csv.write("id," + list.column + "\n");
+        jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement(
+                    "SELECT id, " + list.column + " FROM " + list.table + " ORDER BY id");
+            statement.setFetchSize(chunkSize);
+            return statement;
+        }, row -> {
+            try {
+                if (json != null) {
+                    json.writeStartObject();
+                    json.writeNumberField("id", row.getLong(1));
+                    json.writeStringField(list.column, row.getString(2));
+                    json.writeEndObject();
+                    json.writeRaw('\n');
+                } else {
+                    csv.write(Long.toString(row.getLong(1)));
+                    csv.write(',');
+                    csv.write(row.getString(2));
+                    csv.write('\n');
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        if (json != null) json.flush();
+        if (csv != null) csv.flush();
+        buffered.flush();
+    }
+
+    // Returns how many of the values were new; the rest were already listed
+    private int insert(Blacklist list, Set<String> values, long accepted) {
+        if (values.isEmpty()) return 0;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                List<String> added = transactionTemplate.execute(status -> insertNew(list, values));
+                for (String value : added) {
+                    if (list == Blacklist.STOLEN_CARD) blacklistCache.addCard(value);
+                    else blacklistCache.addIp(value);
+                }
+                return added.size();
+            } catch (DuplicateKeyException e) {
+                // A single-entry POST listed one of them after the check; check again, a few times
+                if (attempt == INSERT_ATTEMPTS) throw new ResponseStatusException(HttpStatus.CONFLICT,
+                        "Entries of a chunk of " + values.size() + " kept being listed concurrently; the "
+                                + accepted + " entries accepted before it are imported", e);
+            }
+        }
+    }
+
+    private List<String> insertNew(Blacklist list, Set<String> values) {
+        Set<String> listed = new HashSet<>(namedJdbcTemplate.queryForList(
+                "SELECT " + list.column + " FROM " + list.table + " WHERE " + list.column + " IN (:values)",
+                Map.of("values", values), String.class));
+        List<String> added = new ArrayList<>(values.size() - listed.size());
+        for (String value : values) {
+            if (!listed.contains(value)) added.add(value);
+        }
+
+        List<Object[]> rows = new ArrayList<>(added.size());
+        long next = 0, last = -1;
+        for (String value : added) {
+            if (next > last) {
+                next = jdbcTemplate.queryForObject("SELECT nextval('" + list.sequence + "')", Long.class);
+                last = next + allocationSize - 1;
+            }
+            rows.add(new Object[]{next++, value});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO " + list.table + " (id, " + list.column + ") VALUES (?, ?)", rows);
+        return added;
+    }
+
+    // The first column, unquoted
+    private static String csvValue(String line) {
+        int comma = line.indexOf(',');
+        String value = (comma < 0 ? line : line.substring(0, comma)).trim();
+        if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+            value = value.substring(1, value.length() - 1).trim();
+        }
+        return value;
+    }
+
+    private String ndjsonValue(String line, String field) {
+        try {
+            JsonNode value = objectMapper.readTree(line).get(field);
+            return value != null && value.isTextual() ? value.textValue() : null;
+        } catch (JsonProcessingException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package antifraud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Remembers credentials that already passed BCrypt so repeat Basic logins skip the user lookup and hash
+public class CachingAuthenticationProvider implements AuthenticationProvider {
+
+    private record Entry(byte[] digest, Authentication authentication, long expiresAt) {}
+
+    private final DaoAuthenticationProvider delegate;
+    private final boolean enabled;
+    private final long ttlNanos;
+    private final int maxSize;
+    private final byte[] salt = new byte[16];
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+    // Bumped on every eviction so a login that raced with a user change is not cached
+    private final AtomicLong generation = new AtomicLong();
+
+    private Counter hits;
+    private Counter misses;
+
+    public CachingAuthenticationProvider(UserDetailsService userDetailsService, PasswordEncoder passwordEncoder,
+                                         boolean enabled, Duration ttl, int maxSize) {
+        this.delegate = new DaoAuthenticationProvider();
+        this.delegate.setUserDetailsService(userDetailsService);
+        this.delegate.setPasswordEncoder(passwordEncoder);
+        this.enabled = enabled;
+        this.ttlNanos = ttl.toNanos();
+        this.maxSize = maxSize;
+        new SecureRandom().nextBytes(salt);
+    }
+
+    public void bindTo(MeterRegistry registry) {
+        hits = Counter.builder("antifraud.auth.cache").tag("outcome", "hit").register(registry);
+        misses = Counter.builder("antifraud.auth.cache").tag("outcome", "miss").register(registry);
+        Gauge.builder("antifraud.auth.cache.size", cache, Map::size).register(registry);
+    }
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        if (!enabled || !(authentication.getCredentials() instanceof String password)) {
+            return delegate.authenticate(authentication);
+        }
+
+        String username = authentication.getName();
+        String key = username.toLowerCase(Locale.ROOT);
+        byte[] digest = digest(username, password);
+        long now = System.nanoTime();
+
+        Entry entry = cache.get(key);
+        if (entry != null && now - entry.expiresAt() < 0 && MessageDigest.isEqual(entry.digest(), digest)) {
+            if (hits != null) hits.increment();
+            Authentication cached = entry.authentication();
+            return UsernamePasswordAuthenticationToken.authenticated(cached.getPrincipal(), null,
+                    cached.getAuthorities());
+        }
+
+        if (misses != null) misses.increment();
+        long seen = generation.get();
+        Authentication result = delegate.authenticate(authentication);
+        if (cache.size() >= maxSize) makeRoom(now);
+        cache.put(key, new Entry(digest, result, now + ttlNanos));
+        if (generation.get() != seen) cache.remove(key);
+        return result;
+    }
+
+    @Override
+    public boolean supports(Class<?> authentication) {
+        return delegate.supports(authentication);
+    }
+
+    public void evict(String username) {
+        generation.incrementAndGet();
+        cache.remove(username.toLowerCase(Locale.ROOT));
+    }
+
+    public void evictAll() {
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    private void makeRoom(long now) {
+        cache.values().removeIf(entry -> now - entry.expiresAt() >= 0);
+        Iterator<String> keys = cache.keySet().iterator();
+        while (cache.size() >= maxSize && keys.hasNext()) {
+            keys.next();
+            keys.remove();
+        }
+    }
+
+    // Salted SHA-256 of "username:password", the decoded Basic header
+    private byte[] digest(String username, String password) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update(salt);
+            sha.update(username.getBytes(StandardCharsets.UTF_8));
+            sha.update((byte) ':');
+            return sha.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package antifraud;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Version;
+
+@Entity
+public class CardLimit {
+
+    @Id
+    private String number;
+    private long allowed = CardLimitService.DEFAULT_ALLOWED;
+    private long manual = CardLimitService.DEFAULT_MANUAL;
+    @Version
+    private long version;
+
+    public CardLimit() {}
+
+    public CardLimit(String number) {
+        this.number = number;
+    }
+
+    public String getNumber() {
+        return number;
+    }
+
+    public void setNumber(String number) {
+        this.number = number;
+    }
+
+    public long getAllowed() {
+        return allowed;
+    }
+
+    public void setAllowed(long allowed) {
+        this.allowed = allowed;
+    }
+
+    public long getManual() {
+        return manual;
+    }
+
+    public void setManual(long manual) {
+        this.manual = manual;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
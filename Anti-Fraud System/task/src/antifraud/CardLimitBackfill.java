@@ -0,0 +1,31 @@
+package antifraud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+@Component
+public class CardLimitBackfill implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(CardLimitBackfill.class);
+
+    private final CardLimitService cardLimitService;
+    private final boolean force;
+
+    public CardLimitBackfill(CardLimitService cardLimitService,
+                             @Value("${antifraud.card-limit.backfill:false}") boolean force) {
+        this.cardLimitService = cardLimitService;
+        this.force = force;
+    }
+
+    // Runs once on a database that predates the card_limit table, or on demand
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!force && !cardLimitService.isEmpty()) return;
+        int cards = cardLimitService.rebuild();
+        if (cards > 0) log.info("Backfilled limits for {} cards", cards);
+    }
+}
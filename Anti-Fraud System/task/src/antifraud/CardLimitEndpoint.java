@@ -0,0 +1,31 @@
+package antifraud;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+
+@Component
+@Endpoint(id = "cardlimits")
+public class CardLimitEndpoint {
+
+    private final CardLimitService cardLimitService;
+
+    public CardLimitEndpoint(CardLimitService cardLimitService) {
+        this.cardLimitService = cardLimitService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> check() {
+        List<String> mismatches = cardLimitService.findInconsistencies();
+        return Map.of("consistent", mismatches.isEmpty(), "mismatches", mismatches);
+    }
+
+    @WriteOperation
+    public Map<String, Object> rebuild() {
+        return Map.of("cards", cardLimitService.rebuild());
+    }
+}
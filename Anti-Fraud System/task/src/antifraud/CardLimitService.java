@@ -0,0 +1,153 @@
+package antifraud;
+
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.*;
+
+@Service
+public class CardLimitService {
+
+    public static final long DEFAULT_ALLOWED = 200;
+    public static final long DEFAULT_MANUAL = 1500;
+
+    private static final List<String> FEEDBACK_CODEX = List.of("ALLOWED", "PROHIBITED", "MANUAL_PROCESSING");
+
+    private final CardLimitRepository cardLimitRepository;
+    private final TransactionRepository transactionRepository;
+
+    public CardLimitService(CardLimitRepository cardLimitRepository, TransactionRepository transactionRepository) {
+        this.cardLimitRepository = cardLimitRepository;
+        this.transactionRepository = transactionRepository;
+    }
+
+    public CardLimit getLimit(String number) {
+        return cardLimitRepository.findById(number).orElseGet(() -> new CardLimit(number));
+    }
+
+    public Map<String, CardLimit> getLimits(Collection<String> numbers) {
+        Map<String, CardLimit> limits = new HashMap<>();
+        for (CardLimit limit : cardLimitRepository.findAllById(numbers)) {
+            limits.put(limit.getNumber(), limit);
+        }
+        for (String number : numbers) {
+            limits.computeIfAbsent(number, CardLimit::new);
+        }
+        return limits;
+    }
+
+    // Stores the feedback and folds it into the card's limits in one unit of work
+    @Transactional
+    public Transaction recordFeedback(Transaction trans, String feedback) {
+        trans.setFeedback(feedback);
+        transactionRepository.save(trans);
+
+        CardLimit limit = getLimit(trans.getNumber());
+        apply(limit, trans);
+        cardLimitRepository.save(limit);
+        return trans;
+    }
+
+    // Full replay of every card's history, in id order, the way scoring used to compute it
+    public Map<String, CardLimit> replayAll() {
+        Map<String, CardLimit> limits = new HashMap<>();
+        for (Transaction trans : transactionRepository.findByFeedbackIsNotNullOrderById()) {
+            apply(limits.computeIfAbsent(trans.getNumber(), CardLimit::new), trans);
+        }
+        return limits;
+    }
+
+    @Transactional
+    public int rebuild() {
+        Map<String, CardLimit> limits = replayAll();
+        cardLimitRepository.deleteAll();
+        cardLimitRepository.saveAll(limits.values());
+        return limits.size();
+    }
+
+    public boolean isEmpty() {
+        return cardLimitRepository.count() == 0;
+    }
+
+    public List<String> findInconsistencies() {
+        Map<String, CardLimit> expected = replayAll();
+        List<String> mismatches = new ArrayList<>();
+
+        for (CardLimit stored : cardLimitRepository.findAll()) {
+            CardLimit replayed = expected.remove(stored.getNumber());
+            long allowed = replayed == null ? DEFAULT_ALLOWED : replayed.getAllowed();
+            long manual = replayed == null ? DEFAULT_MANUAL : replayed.getManual();
+            if (stored.getAllowed() != allowed || stored.getManual() != manual) {
+                mismatches.add(stored.getNumber());
+            }
+        }
+        for (CardLimit missing : expected.values()) {
+            if (missing.getAllowed() != DEFAULT_ALLOWED || missing.getManual() != DEFAULT_MANUAL) {
+                mismatches.add(missing.getNumber());
+            }
+        }
+        Collections.sort(mismatches);
+        return mismatches;
+    }
+
+    private void apply(CardLimit limit, Transaction trans) {
+        if (!FEEDBACK_CODEX.contains(trans.getFeedback())) return;
+        limit.setAllowed(calculateNewLimitForAllowed(limit.getAllowed(), trans.getAmount(),
+                trans.getFeedback(), trans.getResult()));
+        limit.setManual(calculateNewLimitForManual(limit.getManual(), trans.getAmount(),
+                trans.getFeedback(), trans.getResult()));
+    }
+
+    public long calculateNewLimitForAllowed(long currentLimit, long amount, String feedback, String validity) {
+
+
+        if ("ALLOWED".equals(feedback) && "MANUAL_PROCESSING".equals(validity))  {
+            return adjustUp(currentLimit, amount);
+        }
+
+        if ("ALLOWED".equals(feedback) && "PROHIBITED".equals(validity))  {
+            return adjustUp(currentLimit, amount);
+        }
+
+        if ("MANUAL_PROCESSING".equals(feedback) && "ALLOWED".equals(validity)) {
+            return adjustDown(currentLimit, amount);
+        }
+
+        if ("PROHIBITED".equals(feedback) && "ALLOWED".equals(validity)) {
+            return adjustDown(currentLimit, amount);
+        }
+
+        return currentLimit;
+    }
+
+    public long calculateNewLimitForManual(long currentLimit, long amount, String feedback, String validity) {
+
+        if ("ALLOWED".equals(feedback) && "PROHIBITED".equals(validity)) {
+            return adjustUp(currentLimit, amount);
+        }
+
+        if ("MANUAL_PROCESSING".equals(feedback) && "PROHIBITED".equals(validity)) {
+            return adjustUp(currentLimit, amount);
+        }
+
+        if ("PROHIBITED".equals(feedback) && "MANUAL_PROCESSING".equals(validity)) {
+            return adjustDown(currentLimit, amount);
+        }
+
+        if ("PROHIBITED".equals(feedback) && "ALLOWED".equals(validity)) {
+            return adjustDown(currentLimit, amount);
+        }
+        return currentLimit;
+    }
+
+    private static long adjustDown(long currentLimit, long amount) {
+        double result = 0.8 * currentLimit - 0.2 * amount;
+        double newLimit = Math.ceil(result);
+        return (long) newLimit;
+    }
+    private static long adjustUp(long currentLimit, long amount) {
+        double result = 0.8 * currentLimit + 0.2 * amount;
+        double newLimit = Math.ceil(result);
+        return (long) newLimit;
+    }
+}
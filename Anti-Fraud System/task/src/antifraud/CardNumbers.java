@@ -0,0 +1,49 @@
+package antifraud;
+
+public final class CardNumbers {
+
+    public static final long UNPACKABLE = -1;
+    public static final int MAX_PACKED_DIGITS = 17;
+
+    private CardNumbers() {}
+
+    // Digits in the high bits, length in the low five so leading zeros survive the round trip
+    public static long pack(CharSequence number) {
+        int length = number.length();
+        if (length == 0 || length > MAX_PACKED_DIGITS) return UNPACKABLE;
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = number.charAt(i);
+            if (c < '0' || c > '9') return UNPACKABLE;
+            value = value * 10 + (c - '0');
+        }
+        return value << 5 | length;
+    }
+
+    // Same answers as commons-validator's LUHN_CHECK_DIGIT.isValid, including its acceptance of non-ASCII digits
+    // and its rejection of all-zero numbers, without the exception it uses for control flow
+    public static boolean isValidLuhn(CharSequence number) {
+        if (number == null) return false;
+        int length = number.length();
+        int total = 0;
+        for (int i = 0; i < length; i++) {
+            char c = number.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') digit = c - '0';
+            else if (Character.isDigit(c)) digit = Character.getNumericValue(c);
+            else return false;
+            if ((length - i) % 2 == 0) {
+                digit *= 2;
+                if (digit > 9) digit -= 9;
+            }
+            total += digit;
+        }
+        return total != 0 && total % 10 == 0;
+    }
+
+    public static String unpack(long packed) {
+        int length = (int) (packed & 0x1F);
+        String digits = Long.toString(packed >>> 5);
+        return "0".repeat(length - digits.length()) + digits;
+    }
+}
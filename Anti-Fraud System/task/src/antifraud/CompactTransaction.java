@@ -0,0 +1,87 @@
+package antifraud;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+// A transaction in primitives, for what the scoring path reads (the correlation window and velocity counts, which
+// rebuild from JDBC rows straight into it), the journal and the archive: the IPv4 address as an int, the card number
+// packed with its length (CardNumbers.pack), region, result and feedback as ordinals with -1 for none and the date
+// as UTC epoch second plus nano. A number that does not pack keeps its text in unpackedNumber, which is null
+// otherwise. Transaction stays the entity a scored transaction is written and given feedback through, and the JSON
+// shape of the history.
+public record CompactTransaction(long id, long amount, int ip, long number, String unpackedNumber, byte region,
+                                 byte result, byte feedback, long second, int nano) {
+
+    private static final Region[] REGIONS = Region.values();
+    private static final TransactionResult[] RESULTS = TransactionResult.values();
+    private static final byte NONE = -1;
+
+    public static CompactTransaction of(Transaction trans) {
+        long packed = CardNumbers.pack(trans.getNumber());
+        LocalDateTime date = trans.getDate();
+        return new CompactTransaction(trans.getId(), trans.getAmount(), (int) Ipv4.parse(trans.getIp()), packed,
+                packed == CardNumbers.UNPACKABLE ? trans.getNumber() : null,
+                (byte) Region.valueOf(trans.getRegion()).ordinal(), code(trans.getResult()), code(trans.getFeedback()),
+                date.toEpochSecond(ZoneOffset.UTC), date.getNano());
+    }
+
+    // The scoring path already has the parsed fields; the id is not assigned yet
+    public static CompactTransaction of(TransactionValidator.Validated validated, TransactionResult result) {
+        TransactionRequest request = validated.request();
+        LocalDateTime date = request.getDate();
+        return new CompactTransaction(0, request.getAmount(), validated.ip(), validated.packedNumber(),
+                validated.packedNumber() == CardNumbers.UNPACKABLE ? request.getNumber() : null,
+                (byte) validated.region().ordinal(), (byte) result.ordinal(), NONE,
+                date.toEpochSecond(ZoneOffset.UTC), date.getNano());
+    }
+
+    // A row of the transaction table read over JDBC, with the stored codes as they are
+    public static CompactTransaction of(ResultSet row) throws SQLException {
+        String number = row.getString("number");
+        long packed = CardNumbers.pack(number);
+        LocalDateTime date = row.getTimestamp("date").toLocalDateTime();
+        byte feedback = (byte) row.getShort("feedback");
+        if (row.wasNull()) feedback = NONE;
+        return new CompactTransaction(row.getLong("id"), row.getLong("amount"), (int) Ipv4.parse(row.getString("ip")),
+                packed, packed == CardNumbers.UNPACKABLE ? number : null, (byte) row.getShort("region"),
+                (byte) row.getShort("result"), feedback, date.toEpochSecond(ZoneOffset.UTC), date.getNano());
+    }
+
+    public Transaction toTransaction() {
+        Transaction trans = new Transaction();
+        trans.setId(id);
+        trans.setAmount(amount);
+        trans.setIp(Ipv4.format(ip));
+        trans.setNumber(numberText());
+        trans.setRegion(REGIONS[region].name());
+        trans.setDate(date());
+        trans.setResult(RESULTS[result].name());
+        if (feedback != NONE) trans.setFeedback(RESULTS[feedback].name());
+        return trans;
+    }
+
+    public String numberText() {
+        return unpackedNumber != null ? unpackedNumber : CardNumbers.unpack(number);
+    }
+
+    // Equal for the same card number; a Long for packed numbers, the text otherwise
+    public Object cardKey() {
+        return unpackedNumber != null ? unpackedNumber : (Object) number;
+    }
+
+    public LocalDateTime date() {
+        return LocalDateTime.ofEpochSecond(second, nano, ZoneOffset.UTC);
+    }
+
+    // Like date().compareTo(other) without building the LocalDateTime
+    public int compareDate(LocalDateTime other) {
+        int bySecond = Long.compare(second, other.toEpochSecond(ZoneOffset.UTC));
+        return bySecond != 0 ? bySecond : Integer.compare(nano, other.getNano());
+    }
+
+    private static byte code(String result) {
+        return result == null || result.isEmpty() ? NONE : (byte) TransactionResult.valueOf(result).ordinal();
+    }
+}
@@ -0,0 +1,11 @@
+package antifraud;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Reads of the transaction table straight into CompactTransaction, for the in-memory windows that would otherwise
+// load every row as an entity only to convert it. Part of TransactionRepository.
+public interface CompactTransactionQueries {
+
+    List<CompactTransaction> findCompactByDateFrom(LocalDateTime from);
+}
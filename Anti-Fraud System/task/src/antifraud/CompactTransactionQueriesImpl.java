@@ -0,0 +1,29 @@
+package antifraud;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+
+public class CompactTransactionQueriesImpl implements CompactTransactionQueries {
+
+    private static final int FETCH_SIZE = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CompactTransactionQueriesImpl(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public List<CompactTransaction> findCompactByDateFrom(LocalDateTime from) {
+        return jdbcTemplate.query(connection -> {
+            var statement = connection.prepareStatement("SELECT id, amount, date, ip, number, region, result, "
+                    + "feedback FROM transaction WHERE date >= ?");
+            statement.setTimestamp(1, Timestamp.valueOf(from));
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, (row, i) -> CompactTransaction.of(row));
+    }
+}
@@ -0,0 +1,35 @@
+package antifraud;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+// Sizes the Hikari pool from the cores when spring.datasource.hikari.maximum-pool-size is not set: cores times
+// antifraud.datasource.connections-per-core, plus one, after HikariCP's pool sizing guide. That counts the database
+// server's cores, taken to be the same as this machine's. The pool stays at that size, minimum-idle included. The
+// replica pool of ReplicaRoutingConfiguration is sized alike unless antifraud.replica.hikari.maximum-pool-size is set.
+@Component
+public class ConnectionPoolSizing implements BeanPostProcessor {
+
+    private final Environment environment;
+
+    public ConnectionPoolSizing(Environment environment) {
+        this.environment = environment;
+    }
+
+    // After initialization, so after the spring.datasource.hikari properties are bound
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof HikariDataSource dataSource
+                && !environment.containsProperty("spring.datasource.hikari.maximum-pool-size")
+                && !(beanName.equals("replicaDataSource")
+                && environment.containsProperty("antifraud.replica.hikari.maximum-pool-size"))) {
+            int perCore = environment.getProperty("antifraud.datasource.connections-per-core", Integer.class, 2);
+            int size = Runtime.getRuntime().availableProcessors() * perCore + 1;
+            dataSource.setMaximumPoolSize(size);
+            dataSource.setMinimumIdle(size);
+        }
+        return bean;
+    }
+}
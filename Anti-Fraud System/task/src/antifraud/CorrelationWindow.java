@@ -0,0 +1,258 @@
+package antifraud;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Guarded by a ReentrantLock rather than synchronized so a virtual thread waiting on it does not pin its carrier.
+// Holds CompactTransaction entries, so comparisons are on ints, longs and ordinals rather than strings and dates.
+// The window's time is the latest transaction date, but never past the TransactionClock horizon: a transaction dated
+// beyond it waits in ahead until the clock reaches it, and a check reaching beyond it asks the database.
+// Before asking, it waits for the write-behind queue, whose transactions the window has seen but the database not yet,
+// and it adds the unwritten transactions of the batch run the calling thread is scoring (startRun), as the run is
+// only written once all of it is scored.
+@Component
+public class CorrelationWindow {
+
+    private static final Duration WINDOW = Duration.ofHours(1);
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionClock clock;
+    // Looked up lazily, as the writer itself depends on the window
+    private final ObjectProvider<TransactionWriter> transactionWriter;
+    private final Duration retention;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ThreadLocal<List<CompactTransaction>> unwritten = new ThreadLocal<>();
+
+    // Keyed by epoch second; entries within a second keep arrival order
+    private final NavigableMap<Long, List<CompactTransaction>> timeline = new TreeMap<>();
+    private final Map<Object, List<CompactTransaction>> byCard = new HashMap<>();
+    private final NavigableMap<Long, List<CompactTransaction>> ahead = new TreeMap<>();
+    // Distinct ip counts for [liveEnd - 1h, liveEnd], the window of an in-order request stream
+    private final Map<Integer, Integer> liveIpCounts = new HashMap<>();
+    private LocalDateTime liveEnd;
+    // Every transaction dated at or after floor is held in memory
+    private LocalDateTime floor = LocalDateTime.MIN;
+    private boolean ready;
+
+    public CorrelationWindow(TransactionRepository transactionRepository, TransactionClock clock,
+                             ObjectProvider<TransactionWriter> transactionWriter,
+                             @Value("${antifraud.correlation.retention:2h}") Duration retention) {
+        this.transactionRepository = transactionRepository;
+        this.clock = clock;
+        this.transactionWriter = transactionWriter;
+        this.retention = retention.compareTo(WINDOW) < 0 ? WINDOW : retention;
+    }
+
+    // Holds the lock across the reload so no record() in between is lost
+    @PostConstruct
+    public void rebuild() {
+        lock.lock();
+        try {
+            timeline.clear();
+            byCard.clear();
+            ahead.clear();
+            liveIpCounts.clear();
+            liveEnd = null;
+            floor = LocalDateTime.MIN;
+
+            LocalDateTime latest = transactionRepository.findLatestDate();
+            if (latest != null) {
+                LocalDateTime horizon = clock.horizon();
+                if (latest.isAfter(horizon)) latest = horizon;
+                floor = latest.minus(retention);
+                liveEnd = latest;
+                for (CompactTransaction entry : transactionRepository.findCompactByDateFrom(floor)) {
+                    if (entry.compareDate(horizon) > 0) hold(entry);
+                    else add(entry);
+                }
+            }
+            ready = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long countDistinctRegions(Region region, long packedNumber, String number,
+                                     LocalDateTime start, LocalDateTime end) {
+        lock.lock();
+        try {
+            if (covers(start, end)) {
+                Object card = packedNumber == CardNumbers.UNPACKABLE ? number : (Object) packedNumber;
+                int regions = 0;
+                for (CompactTransaction entry : byCard.getOrDefault(card, List.of())) {
+                    if (entry.region() != region.ordinal() && inRange(entry, start, end)) regions |= 1 << entry.region();
+                }
+                return Integer.bitCount(regions);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // Older than the window holds; ask the database without keeping everyone else waiting
+        awaitWritten();
+        Object card = packedNumber == CardNumbers.UNPACKABLE ? number : (Object) packedNumber;
+        int regions = 0;
+        for (CompactTransaction entry : unwritten()) {
+            if (entry.cardKey().equals(card) && entry.region() != region.ordinal() && inRange(entry, start, end)) {
+                regions |= 1 << entry.region();
+            }
+        }
+        if (regions == 0) return transactionRepository.countDistinctRegions(region.name(), number, start, end);
+        for (String other : transactionRepository.findDistinctRegions(region.name(), number, start, end)) {
+            regions |= 1 << Region.valueOf(other).ordinal();
+        }
+        return Integer.bitCount(regions);
+    }
+
+    public long countUniqueIp(int ip, LocalDateTime start, LocalDateTime end) {
+        lock.lock();
+        try {
+            if (covers(start, end)) {
+                if (liveEnd == null || end.isAfter(liveEnd)) advance(end);
+                if (end.equals(liveEnd) && start.equals(end.minus(WINDOW))) {
+                    return liveIpCounts.size() - (liveIpCounts.containsKey(ip) ? 1 : 0);
+                }
+
+                IntHashSet ips = new IntHashSet(64);
+                for (List<CompactTransaction> entries : seconds(start, end)) {
+                    for (CompactTransaction entry : entries) {
+                        if (entry.ip() != ip && inRange(entry, start, end)) ips.add(entry.ip());
+                    }
+                }
+                return ips.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+        awaitWritten();
+        IntHashSet ips = new IntHashSet(16);
+        for (CompactTransaction entry : unwritten()) {
+            if (entry.ip() != ip && inRange(entry, start, end)) ips.add(entry.ip());
+        }
+        if (ips.size() == 0) return transactionRepository.countUniqueIp(Ipv4.format(ip), start, end);
+        for (String other : transactionRepository.findDistinctIps(Ipv4.format(ip), start, end)) {
+            ips.add((int) Ipv4.parse(other));
+        }
+        return ips.size();
+    }
+
+    // Until endRun(), the checks the database answers on this thread also count run, which the caller records
+    // transactions in as it scores them and only writes afterwards
+    public void startRun(List<CompactTransaction> run) {
+        unwritten.set(run);
+    }
+
+    public void endRun() {
+        unwritten.remove();
+    }
+
+    private List<CompactTransaction> unwritten() {
+        List<CompactTransaction> run = unwritten.get();
+        return run == null ? List.of() : run;
+    }
+
+    // On timeout the database answers without the rest of the queue, as it would for a post racing the writer
+    private void awaitWritten() {
+        transactionWriter.ifAvailable(TransactionWriter::awaitWritten);
+    }
+
+    public void record(CompactTransaction trans) {
+        lock.lock();
+        try {
+            if (!ready || trans.compareDate(floor) < 0) return;
+            LocalDateTime horizon = clock.horizon();
+            catchUp(horizon);
+            if (trans.compareDate(horizon) > 0) {
+                hold(trans);
+                return;
+            }
+            if (liveEnd == null || trans.compareDate(liveEnd) > 0) advance(trans.date());
+            add(trans);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean covers(LocalDateTime start, LocalDateTime end) {
+        if (!ready || start.isBefore(floor)) return false;
+        LocalDateTime horizon = clock.horizon();
+        catchUp(horizon);
+        return !end.isAfter(horizon);
+    }
+
+    private void hold(CompactTransaction entry) {
+        ahead.computeIfAbsent(entry.second(), d -> new ArrayList<>(1)).add(entry);
+    }
+
+    // Moves the held transactions the clock has reached into the window
+    private void catchUp(LocalDateTime horizon) {
+        if (ahead.isEmpty()) return;
+        var due = ahead.headMap(horizon.toEpochSecond(ZoneOffset.UTC), true).entrySet().iterator();
+        while (due.hasNext()) {
+            List<CompactTransaction> entries = due.next().getValue();
+            entries.removeIf(entry -> {
+                if (entry.compareDate(horizon) > 0) return false;
+                if (entry.compareDate(floor) >= 0) {
+                    if (liveEnd == null || entry.compareDate(liveEnd) > 0) advance(entry.date());
+                    add(entry);
+                }
+                return true;
+            });
+            if (entries.isEmpty()) due.remove();
+        }
+    }
+
+    private void add(CompactTransaction entry) {
+        timeline.computeIfAbsent(entry.second(), d -> new ArrayList<>(1)).add(entry);
+        byCard.computeIfAbsent(entry.cardKey(), n -> new ArrayList<>()).add(entry);
+        if (inRange(entry, liveEnd.minus(WINDOW), liveEnd)) liveIpCounts.merge(entry.ip(), 1, Integer::sum);
+    }
+
+    private void advance(LocalDateTime end) {
+        if (liveEnd != null) {
+            LocalDateTime from = liveEnd.minus(WINDOW);
+            LocalDateTime to = end.minus(WINDOW);
+            for (List<CompactTransaction> entries : seconds(from, to)) {
+                for (CompactTransaction entry : entries) {
+                    if (entry.compareDate(from) < 0 || entry.compareDate(to) >= 0) continue;
+                    liveIpCounts.computeIfPresent(entry.ip(), (ip, count) -> count == 1 ? null : count - 1);
+                }
+            }
+        }
+        liveEnd = end;
+
+        LocalDateTime horizon = end.minus(retention);
+        if (horizon.isAfter(floor)) floor = horizon;
+        var expired = timeline.headMap(floor.toEpochSecond(ZoneOffset.UTC), true).entrySet().iterator();
+        while (expired.hasNext()) {
+            List<CompactTransaction> entries = expired.next().getValue();
+            // Only the second floor falls in can hold entries on both sides of it
+            entries.removeIf(entry -> {
+                if (entry.compareDate(floor) >= 0) return false;
+                List<CompactTransaction> card = byCard.get(entry.cardKey());
+                card.remove(entry);
+                if (card.isEmpty()) byCard.remove(entry.cardKey());
+                return true;
+            });
+            if (entries.isEmpty()) expired.remove();
+        }
+    }
+
+    // The seconds from start to end; entries in the first and last of them still need checking
+    private Collection<List<CompactTransaction>> seconds(LocalDateTime start, LocalDateTime end) {
+        long from = start.toEpochSecond(ZoneOffset.UTC);
+        long to = end.toEpochSecond(ZoneOffset.UTC);
+        return from > to ? List.of() : timeline.subMap(from, true, to, true).values();
+    }
+
+    private static boolean inRange(CompactTransaction entry, LocalDateTime start, LocalDateTime end) {
+        return entry.compareDate(start) >= 0 && entry.compareDate(end) <= 0;
+    }
+}
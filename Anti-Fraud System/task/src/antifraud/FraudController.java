@@ -1,18 +1,26 @@
 package antifraud;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.validation.Valid;
-import org.apache.commons.validator.routines.InetAddressValidator;
 import org.apache.commons.validator.routines.checkdigit.LuhnCheckDigit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Validated
 @RestController
@@ -23,19 +31,52 @@ public class FraudController {
     private final PasswordEncoder passwordEncoder;
     private final StolenCardRepository stolenCardRepository;
     private final TransactionRepository transactionRepository;
-    private final List<String> regionCodex;
+    private final CardLimitService cardLimitService;
+    private final TransactionScoringService scoringService;
+    private final TransactionExportService exportService;
+    private final BlacklistTransferService blacklistTransferService;
+    private final TransactionJournal transactionJournal;
+    private final TransactionArchive transactionArchive;
+    private final CardLocks cardLocks;
+    private final BlacklistCache blacklistCache;
+    private final CachingAuthenticationProvider authenticationProvider;
     private final List<String> feedbackCodex;
+    private final int maxBatchSize;
+    private final int maxPageSize;
+    private final StageTimers<FeedbackStage> feedbackStages;
+
+    // LOCK is the wait for the card's lock, LIMITS re-reading the transaction and updating the card's limits
+    private enum FeedbackStage { LOOKUP, LOCK, LIMITS, JOURNAL }
 
     public FraudController(AppUserRepository repository, SusIpAddressRepository susIpAddressRepository,
                            PasswordEncoder passwordEncoder, StolenCardRepository stolenCardRepository,
-                           TransactionRepository transactionRepository, List<String> regionCodex, List<String> feedbackCodex) {
+                           TransactionRepository transactionRepository, CardLimitService cardLimitService,
+                           TransactionScoringService scoringService, TransactionExportService exportService,
+                           BlacklistTransferService blacklistTransferService,
+                           TransactionJournal transactionJournal, TransactionArchive transactionArchive,
+                           CardLocks cardLocks, BlacklistCache blacklistCache,
+                           CachingAuthenticationProvider authenticationProvider, List<String> feedbackCodex,
+                           @Value("${antifraud.batch.max-size:10000}") int maxBatchSize,
+                           @Value("${antifraud.history.max-page-size:1000}") int maxPageSize,
+                           MeterRegistry registry) {
         this.repository = repository;
         this.passwordEncoder = passwordEncoder;
         this.stolenCardRepository = stolenCardRepository;
         this.transactionRepository = transactionRepository;
         this.susIpAddressRepository = susIpAddressRepository;
+        this.cardLimitService = cardLimitService;
+        this.scoringService = scoringService;
+        this.exportService = exportService;
+        this.blacklistTransferService = blacklistTransferService;
+        this.transactionJournal = transactionJournal;
+        this.transactionArchive = transactionArchive;
+        this.cardLocks = cardLocks;
+        this.blacklistCache = blacklistCache;
+        this.authenticationProvider = authenticationProvider;
         this.feedbackCodex = List.of("ALLOWED", "PROHIBITED", "MANUAL_PROCESSING");
-        this.regionCodex = List.of("EAP", "ECA", "HIC", "LAC", "MENA", "SA", "SSA");
+        this.maxBatchSize = maxBatchSize;
+        this.maxPageSize = maxPageSize;
+        this.feedbackStages = new StageTimers<>(registry, "antifraud.feedback.stage", FeedbackStage.class);
     }
 
     @PostMapping(path = "/api/auth/user")
@@ -64,6 +105,7 @@ public class FraudController {
     }
 
     @GetMapping("/api/auth/list")
+    @ReplicaRead
     public List<RegistrationResponse> getListUsers() {
 
         return repository.findByOrderById().stream().map(e -> new RegistrationResponse(e.getId(),
@@ -72,24 +114,68 @@ public class FraudController {
     }
 
     @GetMapping("/api/antifraud/history")
-    public List<Transaction> getTransHistory() {
+    @ReplicaRead
+    public List<Transaction> getTransHistory(@RequestParam(required = false) Long afterId,
+                                             @RequestParam(required = false) Integer limit) {
 
-        return transactionRepository.findAllByOrderById();
+        if (afterId == null && limit == null) return transactionRepository.findAllByOrderById();
+        return transactionRepository.findByIdGreaterThanOrderById(afterId == null ? 0 : afterId, page(limit));
     }
 
     @GetMapping( "/api/antifraud/history/{number}")
-    public List<Transaction> getTransaction(@PathVariable String number) {
+    @ReplicaRead
+    public List<Transaction> getTransaction(@PathVariable String number,
+                                            @RequestParam(required = false) Long afterId,
+                                            @RequestParam(required = false) Integer limit) {
 
         if (!LuhnCheckDigit.LUHN_CHECK_DIGIT.isValid(number)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                 "Wrong card number format");
-        var trans = transactionRepository.findByNumber(number);
-        if (trans.isEmpty()) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "transaction not found");
+        var trans = afterId == null && limit == null
+                ? transactionRepository.findByNumberOrderById(number)
+                : transactionRepository.findByNumberAndIdGreaterThanOrderById(number,
+                        afterId == null ? 0 : afterId, page(limit));
+        // Running off the end of a card's pages is not an error, an unknown card is
+        if (trans.isEmpty() && afterId == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "transaction not found");
         return trans;
     }
 
+    // The transactions the retention job moved out of the table, paged like the history. Not a @ReplicaRead: it reads
+    // the archive files on this node's disk and no database.
+    @GetMapping("/api/antifraud/history/archive")
+    public List<Transaction> getArchivedTransHistory(@RequestParam(required = false) String number,
+                                                     @RequestParam(required = false)
+                                                     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                     LocalDateTime from,
+                                                     @RequestParam(required = false)
+                                                     @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+                                                     LocalDateTime to,
+                                                     @RequestParam(required = false) Long afterId,
+                                                     @RequestParam(required = false) Integer limit) throws IOException {
+
+        if (number != null && !LuhnCheckDigit.LUHN_CHECK_DIGIT.isValid(number)) throw new ResponseStatusException(
+                HttpStatus.BAD_REQUEST, "Wrong card number format");
+        return transactionArchive.find(number, from, to, afterId == null ? 0 : afterId, page(limit).getPageSize());
+    }
+
+    // Not a @ReplicaRead either: the body streams from a cursor after the handler has returned
+    @GetMapping(path = "/api/antifraud/history/export", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> exportTransHistory(@RequestParam(required = false) String number) {
+
+        if (number != null && !LuhnCheckDigit.LUHN_CHECK_DIGIT.isValid(number)) throw new ResponseStatusException(
+                HttpStatus.BAD_REQUEST, "Wrong card number format");
+        StreamingResponseBody body = out -> exportService.writeNdjson(number, out);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("application/x-ndjson")).body(body);
+    }
+
+    private Pageable page(Integer limit) {
+        if (limit == null) return PageRequest.of(0, maxPageSize);
+        if (limit < 1) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid limit");
+        return PageRequest.of(0, Math.min(limit, maxPageSize));
+    }
+
     @PutMapping("/api/antifraud/transaction")
     public Transaction putTransaction(@RequestBody putTransRequest request) {
-
+        long started = System.nanoTime();
         Optional<Transaction> optionalTrans = transactionRepository.findById(request.transactionId);
         var trans = optionalTrans.orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND,
                 "Transaction not found"));
@@ -98,180 +184,39 @@ public class FraudController {
         if (!feedbackCodex.contains(request.feedback)) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Wrong feedback format");
         }
-        // Throw exceptions according to the table
-        if (trans.getResult().equals(request.feedback)) {
-            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Feedback already exists");
-        }
-        // If the feedback for a specified transaction is already in the database
-        if (!trans.getFeedback().isEmpty()) {
-            throw new ResponseStatusException(HttpStatus.CONFLICT, "Feedback already in database");
-        }
-
-        trans.setFeedback(request.feedback);
-        transactionRepository.save(trans);
-
-        return trans;
-    }
-
-    @PostMapping("/api/antifraud/transaction")
-    public TransactionResponse postTransaction(@RequestBody @Valid TransactionRequest request) {
-
-        long sum = request.getAmount();
-        String number = request.getNumber();
-        String ip = request.getIp();
-        String region = request.getRegion();
-        LocalDateTime date = request.getDate();
-        var start = date.minusHours(1);
-        String status = "why dont you initialize me";
-
-        List<String> errors = new ArrayList<>();
-        Transaction transaction = new Transaction();
-        TransactionResponse response = new TransactionResponse();
-
-        InetAddressValidator validator = InetAddressValidator.getInstance();
-        if (!validator.isValidInet4Address(ip)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                "Wrong ip format");
-
-        if (!LuhnCheckDigit.LUHN_CHECK_DIGIT.isValid(number)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                "Wrong card number format");
-
-        if (!regionCodex.contains(region)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                "Invalid region format");
-
-        if (isDateValid(date)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                "Invalid date format");
-
-        if (transactionRepository.countDistinctRegions(region, number, start, date) > 2) {
-            errors.add("region-correlation");
-            status = "PROHIBITED";
-        }
-
-        if (transactionRepository.countUniqueIp(ip, start, date) > 2) {
-            errors.add("ip-correlation");
-            status = "PROHIBITED";
-        }
-
-        if (transactionRepository.countDistinctRegions(region, number, start, date) == 2) {
-            errors.add("region-correlation");
-            status = "MANUAL_PROCESSING";
-        }
-
-        if (transactionRepository.countUniqueIp(ip, start, date) == 2) {
-            errors.add("ip-correlation");
-            status = "MANUAL_PROCESSING";
-        }
-
-        if (susIpAddressRepository.existsByIp(ip)) errors.add("ip");
-        if (stolenCardRepository.existsByNumber(number)) errors.add("card-number");
-
-        List<Transaction> transList = transactionRepository.findByNumber(number);
-        long allowed = 200;
-        long manual = 1500;
-        for (Transaction trans: transList) {
-            if (feedbackCodex.contains(trans.getFeedback())) {
-                allowed = calculateNewLimitForAllowed(allowed, trans.getAmount(), trans.getFeedback(), trans.getResult());
-                manual = calculateNewLimitForManual(manual, trans.getAmount(), trans.getFeedback(), trans.getResult());
+        long lookedUpAt = feedbackStages.record(FeedbackStage.LOOKUP, started);
+
+        // Under the card's lock, so concurrent feedback cannot both pass the checks or race on the card's limits
+        return cardLocks.withCard(trans.getNumber(), () -> {
+            long at = feedbackStages.record(FeedbackStage.LOCK, lookedUpAt);
+            Transaction current = transactionRepository.findById(request.transactionId).orElseThrow();
+            // Throw exceptions according to the table
+            if (current.getResult().equals(request.feedback)) {
+                throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY, "Feedback already exists");
             }
-        }
-
-
-        if (errors.isEmpty() && sum <= allowed) {
-            errors.add("none");
-            status = "ALLOWED";
-        } else if (sum <= manual) {
-            if (errors.contains("ip") || errors.contains("card-number")) {
-                status = "PROHIBITED";
-            } else {
-                if (!status.equals("PROHIBITED")) {
-                    status = "MANUAL_PROCESSING";
-                }
-                if (errors.isEmpty()) {
-                    errors.add("amount");
-                }
+            // If the feedback for a specified transaction is already in the database
+            if (!current.getFeedback().isEmpty()) {
+                throw new ResponseStatusException(HttpStatus.CONFLICT, "Feedback already in database");
             }
-        } else {
-            errors.add("amount");
-            status = "PROHIBITED";
-        }
-
-        transaction.setAmount(sum);
-        transaction.setIp(ip);
-        transaction.setNumber(number);
-        transaction.setRegion(region);
-        transaction.setDate(date);
-        transaction.setResult(status);
-
-        transactionRepository.save(transaction);
-        String result = errors.stream().sorted().collect(Collectors.joining(", "));
-        response.setInfo(result);
-        response.setResult(status);
-        return response;
-    }
-
-    public long calculateNewLimitForAllowed(long currentLimit, long amount, String feedback, String validity) {
-
-
-        if ("ALLOWED".equals(feedback) && "MANUAL_PROCESSING".equals(validity))  {
-            return adjustUp(currentLimit, amount);
-        }
-
-        if ("ALLOWED".equals(feedback) && "PROHIBITED".equals(validity))  {
-            return adjustUp(currentLimit, amount);
-        }
-
-        if ("MANUAL_PROCESSING".equals(feedback) && "ALLOWED".equals(validity)) {
-            return adjustDown(currentLimit, amount);
-        }
-
-        if ("PROHIBITED".equals(feedback) && "ALLOWED".equals(validity)) {
-            return adjustDown(currentLimit, amount);
-        }
 
-        return currentLimit;
+            Transaction updated = cardLimitService.recordFeedback(current, request.feedback);
+            at = feedbackStages.record(FeedbackStage.LIMITS, at);
+            transactionJournal.append(updated);
+            feedbackStages.record(FeedbackStage.JOURNAL, at);
+            return updated;
+        });
     }
 
-    public long calculateNewLimitForManual(long currentLimit, long amount, String feedback, String validity) {
-
-        if ("ALLOWED".equals(feedback) && "PROHIBITED".equals(validity)) {
-            return adjustUp(currentLimit, amount);
-        }
-
-        if ("MANUAL_PROCESSING".equals(feedback) && "PROHIBITED".equals(validity)) {
-            return adjustUp(currentLimit, amount);
-        }
-
-        if ("PROHIBITED".equals(feedback) && "MANUAL_PROCESSING".equals(validity)) {
-            return adjustDown(currentLimit, amount);
-        }
-
-        if ("PROHIBITED".equals(feedback) && "ALLOWED".equals(validity)) {
-            return adjustDown(currentLimit, amount);
-        }
-        return currentLimit;
-    }
-
-    private static long adjustDown(long currentLimit, long amount) {
-        double result = 0.8 * currentLimit - 0.2 * amount;
-        double newLimit = Math.ceil(result);
-        return (long) newLimit;
-    }
-    private static long adjustUp(long currentLimit, long amount) {
-        double result = 0.8 * currentLimit + 0.2 * amount;
-        double newLimit = Math.ceil(result);
-        return (long) newLimit;
+    @PostMapping("/api/antifraud/transaction")
+    public TransactionResponse postTransaction(@RequestBody @Valid TransactionRequest request) {
+        return scoringService.process(request);
     }
 
-
-    public boolean isDateValid(LocalDateTime date) {
-
-        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss");
-
-        try {
-            LocalDateTime parseDate = LocalDateTime.parse(date.toString(), format);
-            return true;
-        } catch (Exception e) {
-            return false;
-        }
+    @PostMapping("/api/antifraud/transactions/batch")
+    public List<BatchTransactionResponse> postTransactionBatch(@RequestBody List<TransactionRequest> requests) {
+        if (requests.size() > maxBatchSize) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Batch too large, at most %d transactions".formatted(maxBatchSize));
+        return scoringService.processBatch(requests);
     }
 
     @DeleteMapping("/api/auth/user/{username}")
@@ -284,6 +229,7 @@ public class FraudController {
 
         AppUser user = userOptional.get();
         repository.delete(user);
+        authenticationProvider.evict(user.getUsername());
 
         return new DeleteResponse(username, "Deleted successfully!");
     }
@@ -306,6 +252,7 @@ public class FraudController {
 
         user.setAuthority(role);
         repository.save(user);
+        authenticationProvider.evict(user.getUsername());
 
         return new RegistrationResponse(user.getId(), user.getName(),
                 user.getUsername(), user.getAuthority());
@@ -338,6 +285,7 @@ public class FraudController {
         }
 
         repository.save(user);
+        authenticationProvider.evict(user.getUsername());
         String response = "User %s %s!".formatted(username, result);
         return new AccessResponse(response);
     }
@@ -345,36 +293,40 @@ public class FraudController {
     @PostMapping("/api/antifraud/suspicious-ip")
     public SusIpAddress postSusIp(@RequestBody SusIpRequest request) {
 
+        // A single address, or a CIDR range such as 10.1.0.0/16 with the host bits zero
+        Ipv4.Prefix prefix = request.ip() == null ? null : Ipv4.parsePrefix(request.ip());
+        if (prefix == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Not valid IP");
 
         SusIpAddress susAddress = new SusIpAddress();
-        susAddress.setIp(request.ip());
-
-        InetAddressValidator validator = InetAddressValidator.getInstance();
-        if (!validator.isValidInet4Address(susAddress.getIp()))
-            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
-                    "Not valid IP");
+        susAddress.setIp(prefix.canonical());
 
-        Optional<SusIpAddress> ipOptional = susIpAddressRepository.findSusIpAddressByIp(request.ip);
+        Optional<SusIpAddress> ipOptional = susIpAddressRepository.findSusIpAddressByIp(susAddress.getIp());
         if (ipOptional.isPresent()) throw new ResponseStatusException(HttpStatus.CONFLICT,
                 "Ip already exists");
 
         susIpAddressRepository.save(susAddress);
+        blacklistCache.addIp(susAddress.getIp());
 
         return susAddress;
     }
 
-    @DeleteMapping("/api/antifraud/suspicious-ip/{ip}")
-    public Map<String, String> deleteSusIp(@PathVariable String ip) {
+    // A range is deleted as /api/antifraud/suspicious-ip/10.1.0.0/16
+    @DeleteMapping({"/api/antifraud/suspicious-ip/{address}", "/api/antifraud/suspicious-ip/{address}/{length}"})
+    public Map<String, String> deleteSusIp(@PathVariable String address,
+                                           @PathVariable(required = false) String length) {
 
-        InetAddressValidator validator = InetAddressValidator.getInstance();
-        if (!validator.isValidInet4Address(ip)) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+        Ipv4.Prefix prefix = Ipv4.parsePrefix(length == null ? address : address + "/" + length);
+        if (prefix == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
                 "Not valid IP");
+        String ip = prefix.canonical();
 
         Optional<SusIpAddress> ipOptional = susIpAddressRepository.findSusIpAddressByIp(ip);
         if (ipOptional.isEmpty()) throw new ResponseStatusException(HttpStatus.NOT_FOUND,
                 "Ip not found");
 
         susIpAddressRepository.delete(ipOptional.get());
+        blacklistCache.removeIp(ip);
 
         String result = "IP %s successfully removed!".formatted(ip);
         Map<String, String> response = new HashMap<>();
@@ -383,10 +335,24 @@ public class FraudController {
     }
 
     @GetMapping("/api/antifraud/suspicious-ip")
+    @ReplicaRead
     public List<SusIpAddress> getSusIpList() {
         return susIpAddressRepository.findAllByOrderById();
     }
 
+    @PostMapping(path = "/api/antifraud/suspicious-ip/import", consumes = {"text/csv", "application/x-ndjson"})
+    public BlacklistImportResponse importSusIps(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+                                               InputStream body) throws IOException {
+        return blacklistTransferService.importEntries(BlacklistTransferService.Blacklist.SUSPICIOUS_IP,
+                transferFormat(contentType), body);
+    }
+
+    @GetMapping(path = "/api/antifraud/suspicious-ip/export", produces = {"application/x-ndjson", "text/csv"})
+    public ResponseEntity<StreamingResponseBody> exportSusIps(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return exportBlacklist(BlacklistTransferService.Blacklist.SUSPICIOUS_IP, accept);
+    }
+
     @PostMapping("/api/antifraud/stolencard")
     public StolenCard postStolenCard(@RequestBody StolenCardRequest request) {
         StolenCard stolenCard = new StolenCard();
@@ -400,6 +366,7 @@ public class FraudController {
                     "Wrong card number format");
 
         stolenCardRepository.save(stolenCard);
+        blacklistCache.addCard(stolenCard.getNumber());
         return stolenCard;
     }
 
@@ -416,6 +383,7 @@ public class FraudController {
 
 
         stolenCardRepository.delete(cardOptional.get());
+        blacklistCache.removeCard(number);
 
         String result = "Card %s successfully removed!".formatted(number);
         Map<String, String> response = new HashMap<>();
@@ -424,10 +392,41 @@ public class FraudController {
     }
 
     @GetMapping("/api/antifraud/stolencard")
+    @ReplicaRead
     public List<StolenCard> getStolenCardList() {
         return stolenCardRepository.findAllByOrderById();
     }
 
+    @PostMapping(path = "/api/antifraud/stolencard/import", consumes = {"text/csv", "application/x-ndjson"})
+    public BlacklistImportResponse importStolenCards(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+                                                     InputStream body) throws IOException {
+        return blacklistTransferService.importEntries(BlacklistTransferService.Blacklist.STOLEN_CARD,
+                transferFormat(contentType), body);
+    }
+
+    @GetMapping(path = "/api/antifraud/stolencard/export", produces = {"application/x-ndjson", "text/csv"})
+    public ResponseEntity<StreamingResponseBody> exportStolenCards(
+            @RequestHeader(value = HttpHeaders.ACCEPT, required = false) String accept) {
+        return exportBlacklist(BlacklistTransferService.Blacklist.STOLEN_CARD, accept);
+    }
+
+    private static BlacklistTransferService.Format transferFormat(MediaType contentType) {
+        return contentType.isCompatibleWith(MediaType.parseMediaType("text/csv"))
+                ? BlacklistTransferService.Format.CSV : BlacklistTransferService.Format.NDJSON;
+    }
+
+    // NDJSON unless the client asks for CSV
+    private ResponseEntity<StreamingResponseBody> exportBlacklist(BlacklistTransferService.Blacklist list,
+                                                                  String accept) {
+        boolean csv = accept != null && MediaType.parseMediaTypes(accept).stream()
+                .anyMatch(type -> type.isCompatibleWith(MediaType.parseMediaType("text/csv")) && !type.isWildcardType());
+        BlacklistTransferService.Format format = csv
+                ? BlacklistTransferService.Format.CSV : BlacklistTransferService.Format.NDJSON;
+        StreamingResponseBody body = out -> blacklistTransferService.export(list, format, out);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(csv ? "text/csv" : "application/x-ndjson"))
+                .body(body);
+    }
+
     public record putTransRequest(long transactionId, String feedback) {
     }
 
@@ -0,0 +1,26 @@
+package antifraud;
+
+// Why a transaction was held back; the codes are what the response's info field lists
+public enum FraudReason {
+    AMOUNT("amount", false),
+    CARD_NUMBER("card-number", false),
+    IP("ip", false),
+    IP_CORRELATION("ip-correlation", true),
+    REGION_CORRELATION("region-correlation", true);
+
+    private final String code;
+    private final boolean correlation;
+
+    FraudReason(String code, boolean correlation) {
+        this.code = code;
+        this.correlation = correlation;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public boolean isCorrelation() {
+        return correlation;
+    }
+}
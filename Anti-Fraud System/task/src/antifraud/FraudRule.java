@@ -0,0 +1,13 @@
+package antifraud;
+
+import java.util.Set;
+
+public interface FraudRule {
+
+    FraudReason reason();
+
+    Set<RiskInput> inputs();
+
+    // PROHIBITED or MANUAL_PROCESSING when the rule fires, null when it does not
+    TransactionResult evaluate(RiskContext context);
+}
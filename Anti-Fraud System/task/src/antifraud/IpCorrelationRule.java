@@ -0,0 +1,30 @@
+package antifraud;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+@Component
+public class IpCorrelationRule implements FraudRule {
+
+    private static final Set<RiskInput> INPUTS = EnumSet.of(RiskInput.IP_CORRELATION);
+
+    @Override
+    public FraudReason reason() {
+        return FraudReason.IP_CORRELATION;
+    }
+
+    @Override
+    public Set<RiskInput> inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public TransactionResult evaluate(RiskContext context) {
+        long ips = context.getIpCount();
+        if (ips > 2) return TransactionResult.PROHIBITED;
+        if (ips == 2) return TransactionResult.MANUAL_PROCESSING;
+        return null;
+    }
+}
@@ -0,0 +1,105 @@
+package antifraud;
+
+// Set of IPv4 prefixes as a binary Patricia trie: each node holds a whole prefix and only nodes where prefixes
+// branch or end exist, so it has fewer than two nodes per prefix and a lookup visits at most 33 of them, without
+// allocating. Not thread-safe.
+public class IpPrefixTrie {
+
+    private static final class Node {
+        final int bits;
+        final int length;
+        boolean terminal;
+        Node zero;
+        Node one;
+
+        Node(int bits, int length, boolean terminal) {
+            this.bits = bits;
+            this.length = length;
+            this.terminal = terminal;
+        }
+    }
+
+    private Node root;
+    private int size;
+
+    // Whether the address falls in any of the prefixes
+    public boolean matches(int address) {
+        for (Node node = root; node != null; node = bit(address, node.length) == 0 ? node.zero : node.one) {
+            if (((address ^ node.bits) & Ipv4.Prefix.mask(node.length)) != 0) return false;
+            if (node.terminal) return true;
+            if (node.length == 32) return false;
+        }
+        return false;
+    }
+
+    public boolean add(int address, int length) {
+        int before = size;
+        root = add(root, address & Ipv4.Prefix.mask(length), length);
+        return size > before;
+    }
+
+    public boolean remove(int address, int length) {
+        int before = size;
+        root = remove(root, address & Ipv4.Prefix.mask(length), length);
+        return size < before;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        root = null;
+        size = 0;
+    }
+
+    private Node add(Node node, int bits, int length) {
+        if (node == null) {
+            size++;
+            return new Node(bits, length, true);
+        }
+        int common = Math.min(Integer.numberOfLeadingZeros(node.bits ^ bits), Math.min(node.length, length));
+        if (common == node.length) {
+            if (length == node.length) {
+                if (!node.terminal) size++;
+                node.terminal = true;
+            } else if (bit(bits, node.length) == 0) {
+                node.zero = add(node.zero, bits, length);
+            } else {
+                node.one = add(node.one, bits, length);
+            }
+            return node;
+        }
+        // The prefixes part (or the new one ends) above this node: a node for the shared part takes its place
+        Node branch = new Node(bits & Ipv4.Prefix.mask(common), common, common == length);
+        attach(branch, node);
+        if (common < length) attach(branch, new Node(bits, length, true));
+        size++;
+        return branch;
+    }
+
+    private Node remove(Node node, int bits, int length) {
+        if (node == null || node.length > length
+                || ((bits ^ node.bits) & Ipv4.Prefix.mask(node.length)) != 0) return node;
+        if (node.length == length) {
+            if (node.terminal) size--;
+            node.terminal = false;
+        } else if (bit(bits, node.length) == 0) {
+            node.zero = remove(node.zero, bits, length);
+        } else {
+            node.one = remove(node.one, bits, length);
+        }
+        // A node that no longer ends a prefix is only kept where two branches meet
+        if (node.terminal || (node.zero != null && node.one != null)) return node;
+        return node.zero != null ? node.zero : node.one;
+    }
+
+    private static void attach(Node parent, Node child) {
+        if (bit(child.bits, parent.length) == 0) parent.zero = child;
+        else parent.one = child;
+    }
+
+    private static int bit(int bits, int position) {
+        return (bits >>> (31 - position)) & 1;
+    }
+}
@@ -0,0 +1,65 @@
+package antifraud;
+
+public final class Ipv4 {
+
+    public static final long INVALID = -1;
+
+    private Ipv4() {}
+
+    // Dotted quad to its 32-bit value (as an unsigned long), or INVALID
+    public static long parse(CharSequence ip) {
+        int length = ip.length();
+        long address = 0;
+        int octets = 0;
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            int value = 0;
+            while (i < length && ip.charAt(i) >= '0' && ip.charAt(i) <= '9') {
+                value = value * 10 + (ip.charAt(i) - '0');
+                if (++i - start > 3) return INVALID;
+            }
+            int digits = i - start;
+            if (digits == 0 || value > 255 || (digits > 1 && ip.charAt(start) == '0')) return INVALID;
+            address = (address << 8) | value;
+            if (++octets == 4) return i == length ? address : INVALID;
+            if (i == length || ip.charAt(i) != '.') return INVALID;
+            i++;
+        }
+        return INVALID;
+    }
+
+    // "a.b.c.d" or CIDR "a.b.c.d/n" with n from 1 to 32 and the host bits zero, or null
+    public static Prefix parsePrefix(String text) {
+        int slash = text.indexOf('/');
+        long address = parse(slash < 0 ? text : text.substring(0, slash));
+        if (address == INVALID) return null;
+        if (slash < 0) return new Prefix((int) address, 32);
+        String digits = text.substring(slash + 1);
+        if (digits.isEmpty() || digits.length() > 2 || (digits.length() > 1 && digits.charAt(0) == '0')) return null;
+        int length = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            char c = digits.charAt(i);
+            if (c < '0' || c > '9') return null;
+            length = length * 10 + (c - '0');
+        }
+        if (length < 1 || length > 32 || ((int) address & ~Prefix.mask(length)) != 0) return null;
+        return new Prefix((int) address, length);
+    }
+
+    public record Prefix(int address, int length) {
+
+        public static int mask(int length) {
+            return length == 0 ? 0 : -1 << (32 - length);
+        }
+
+        // A /32 is written as the plain address, the form single suspicious IPs have always had
+        public String canonical() {
+            return length == 32 ? format(address) : format(address) + "/" + length;
+        }
+    }
+
+    public static String format(int address) {
+        return (address >>> 24) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+    }
+}
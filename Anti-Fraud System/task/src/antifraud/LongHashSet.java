@@ -0,0 +1,94 @@
+package antifraud;
+
+import java.util.Arrays;
+
+// Open-addressing set of primitive longs; 0 marks a free slot and is tracked on the side
+public class LongHashSet {
+
+    private long[] keys;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    public LongHashSet(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(expected, 8) * 2 - 1) << 1;
+        keys = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) return containsZero;
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            long current = keys[i];
+            if (current == 0) return false;
+            if (current == key) return true;
+        }
+    }
+
+    public boolean add(long key) {
+        if (key == 0) {
+            if (containsZero) return false;
+            containsZero = true;
+            size++;
+            return true;
+        }
+        int i = slot(key);
+        for (; keys[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) return false;
+        }
+        keys[i] = key;
+        if (++size > keys.length / 2) resize();
+        return true;
+    }
+
+    public boolean remove(long key) {
+        if (key == 0) {
+            if (!containsZero) return false;
+            containsZero = false;
+            size--;
+            return true;
+        }
+        int i = slot(key);
+        for (; keys[i] != key; i = (i + 1) & mask) {
+            if (keys[i] == 0) return false;
+        }
+        // Shift later members of the probe run back so lookups never stop early
+        for (int j = (i + 1) & mask; keys[j] != 0; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                i = j;
+            }
+        }
+        keys[i] = 0;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        containsZero = false;
+        size = 0;
+    }
+
+    private int slot(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void resize() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        mask = keys.length - 1;
+        for (long key : old) {
+            if (key == 0) continue;
+            int i = slot(key);
+            while (keys[i] != 0) i = (i + 1) & mask;
+            keys[i] = key;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package antifraud;
+
+// Ordinals are the stored column codes; append new regions at the end
+public enum Region {
+    EAP, ECA, HIC, LAC, MENA, SA, SSA;
+
+    // Like valueOf, but null instead of an exception for anything that is not a region code
+    public static Region fromCode(String code) {
+        if (code == null) return null;
+        return switch (code) {
+            case "EAP" -> EAP;
+            case "ECA" -> ECA;
+            case "HIC" -> HIC;
+            case "LAC" -> LAC;
+            case "MENA" -> MENA;
+            case "SA" -> SA;
+            case "SSA" -> SSA;
+            default -> null;
+        };
+    }
+}
@@ -0,0 +1,20 @@
+package antifraud;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class RegionConverter implements AttributeConverter<String, Short> {
+
+    private static final Region[] REGIONS = Region.values();
+
+    @Override
+    public Short convertToDatabaseColumn(String region) {
+        return region == null ? null : (short) Region.valueOf(region).ordinal();
+    }
+
+    @Override
+    public String convertToEntityAttribute(Short code) {
+        return code == null ? null : REGIONS[code].name();
+    }
+}
@@ -0,0 +1,30 @@
+package antifraud;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+@Component
+public class RegionCorrelationRule implements FraudRule {
+
+    private static final Set<RiskInput> INPUTS = EnumSet.of(RiskInput.REGION_CORRELATION);
+
+    @Override
+    public FraudReason reason() {
+        return FraudReason.REGION_CORRELATION;
+    }
+
+    @Override
+    public Set<RiskInput> inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public TransactionResult evaluate(RiskContext context) {
+        long regions = context.getRegionCount();
+        if (regions > 2) return TransactionResult.PROHIBITED;
+        if (regions == 2) return TransactionResult.MANUAL_PROCESSING;
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package antifraud;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Measures how far the replica is behind with a heartbeat: every interval it reads back from the replica the time
+// last written to replica_heartbeat on the primary, then writes the current one. The lag is to within the interval,
+// and the replica counts as fresh while the lag is within antifraud.replica.max-staleness. A failed check makes the
+// lag unknown, and an unknown lag is not fresh, so reads go back to the primary until the replica answers again.
+public class ReplicaMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaMonitor.class);
+    private static final long UNKNOWN = -1;
+
+    private final JdbcTemplate primary;
+    private final JdbcTemplate replica;
+    private final Duration maxStaleness;
+    private final Duration interval;
+
+    private volatile long lagMillis = UNKNOWN;
+    private ScheduledExecutorService scheduler;
+
+    public ReplicaMonitor(DataSource primary, DataSource replica, Duration maxStaleness, Duration interval,
+                          MeterRegistry registry) {
+        this.primary = new JdbcTemplate(primary);
+        this.replica = new JdbcTemplate(replica);
+        this.maxStaleness = maxStaleness;
+        this.interval = interval;
+        TimeGauge.builder("antifraud.replica.lag", this, TimeUnit.MILLISECONDS,
+                monitor -> monitor.lagMillis == UNKNOWN ? Double.NaN : monitor.lagMillis).register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "replica-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::check, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public boolean isFresh() {
+        long lag = lagMillis;
+        return lag != UNKNOWN && lag <= maxStaleness.toMillis();
+    }
+
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    void check() {
+        try {
+            Long beat = replica.queryForObject("SELECT beat FROM replica_heartbeat WHERE id = 1", Long.class);
+            long now = System.currentTimeMillis();
+            boolean wasFresh = isFresh();
+            lagMillis = beat == null || beat == 0 ? UNKNOWN : Math.max(0, now - beat);
+            if (wasFresh && !isFresh()) log.warn("Replica is {} ms behind, reading from the primary", lagMillis);
+        } catch (RuntimeException e) {
+            if (lagMillis != UNKNOWN) log.warn("Replica check failed, reading from the primary", e);
+            lagMillis = UNKNOWN;
+        }
+        try {
+            primary.update("UPDATE replica_heartbeat SET beat = ? WHERE id = 1", System.currentTimeMillis());
+        } catch (RuntimeException e) {
+            log.warn("Could not write the replica heartbeat", e);
+        }
+    }
+}
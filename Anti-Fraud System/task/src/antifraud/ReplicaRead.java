@@ -0,0 +1,13 @@
+package antifraud;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// A read-only endpoint that may be served from the replica when antifraud.replica.enabled is set; see
+// ReplicaRoutingConfiguration. Only for handlers that do all their reading before they return.
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ReplicaRead {
+}
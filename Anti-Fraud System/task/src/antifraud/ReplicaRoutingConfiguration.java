@@ -0,0 +1,84 @@
+package antifraud;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+// antifraud.replica.enabled=true reads the @ReplicaRead endpoints (the history, user and blacklist listings) from
+// a replica of the database at antifraud.replica.url, while it is no more than antifraud.replica.max-staleness
+// behind; scoring, mutations, Flyway and everything outside a request stay on the primary. The replica pool takes
+// the spring.datasource.hikari settings, overridden by antifraud.replica.hikari, and is read-only. The pools are
+// named primary and replica in the hikaricp metrics; antifraud.replica.reads counts the requests by route and
+// antifraud.replica.lag is the last measured lag (see ReplicaMonitor).
+@Configuration
+@ConditionalOnProperty(name = "antifraud.replica.enabled", havingValue = "true")
+public class ReplicaRoutingConfiguration implements WebMvcConfigurer {
+
+    private final Environment environment;
+    private final MeterRegistry registry;
+    private final ObjectProvider<ReplicaMonitor> replicaMonitor;
+
+    public ReplicaRoutingConfiguration(Environment environment, MeterRegistry registry,
+                                       ObjectProvider<ReplicaMonitor> replicaMonitor) {
+        this.environment = environment;
+        this.registry = registry;
+        this.replicaMonitor = replicaMonitor;
+    }
+
+    // As Spring Boot builds its own pool when there is no DataSource bean
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        HikariDataSource dataSource = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        dataSource.setPoolName("primary");
+        return dataSource;
+    }
+
+    @Bean
+    public HikariDataSource replicaDataSource(@Value("${antifraud.replica.url}") String url,
+                                              @Value("${antifraud.replica.username:}") String username,
+                                              @Value("${antifraud.replica.password:}") String password) {
+        HikariDataSource dataSource = DataSourceBuilder.create().type(HikariDataSource.class)
+                .url(url).username(username).password(password).build();
+        Binder binder = Binder.get(environment);
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(dataSource));
+        binder.bind("antifraud.replica.hikari", Bindable.ofInstance(dataSource));
+        dataSource.setPoolName("replica");
+        dataSource.setReadOnly(true);
+        return dataSource;
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource) {
+        return new ReplicaRoutingDataSource(primaryDataSource, replicaDataSource);
+    }
+
+    @Bean
+    public ReplicaMonitor replicaMonitor(HikariDataSource primaryDataSource, HikariDataSource replicaDataSource,
+                                         @Value("${antifraud.replica.max-staleness:5s}") Duration maxStaleness,
+                                         @Value("${antifraud.replica.check-interval:1s}") Duration interval) {
+        return new ReplicaMonitor(primaryDataSource, replicaDataSource, maxStaleness, interval, registry);
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry interceptors) {
+        interceptors.addInterceptor(new ReplicaRoutingInterceptor(replicaMonitor.getObject(), registry));
+    }
+}
@@ -0,0 +1,32 @@
+package antifraud;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+// Hands out connections of the replica pool on threads ReplicaRoutingInterceptor marked, of the primary otherwise.
+// The choice is made each time a connection is taken, and a thread stays marked until its request completes, so
+// every transaction of a @ReplicaRead handler reads from the same pool.
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private enum Route { PRIMARY, REPLICA }
+
+    private static final ThreadLocal<Boolean> replica = new ThreadLocal<>();
+
+    public ReplicaRoutingDataSource(DataSource primary, DataSource replica) {
+        setTargetDataSources(Map.of(Route.PRIMARY, primary, Route.REPLICA, replica));
+        setDefaultTargetDataSource(primary);
+        setLenientFallback(false);
+    }
+
+    static void useReplica(boolean use) {
+        if (use) replica.set(Boolean.TRUE);
+        else replica.remove();
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return replica.get() != null ? Route.REPLICA : Route.PRIMARY;
+    }
+}
@@ -0,0 +1,44 @@
+package antifraud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+// Sends @ReplicaRead handlers to the replica while it is fresh, counting the requests by where they went
+public class ReplicaRoutingInterceptor implements AsyncHandlerInterceptor {
+
+    private final ReplicaMonitor monitor;
+    private final Counter toReplica;
+    private final Counter toPrimary;
+
+    public ReplicaRoutingInterceptor(ReplicaMonitor monitor, MeterRegistry registry) {
+        this.monitor = monitor;
+        this.toReplica = Counter.builder("antifraud.replica.reads").tag("route", "replica").register(registry);
+        this.toPrimary = Counter.builder("antifraud.replica.reads").tag("route", "primary").register(registry);
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod method && method.hasMethodAnnotation(ReplicaRead.class)) {
+            boolean fresh = monitor.isFresh();
+            (fresh ? toReplica : toPrimary).increment();
+            ReplicaRoutingDataSource.useReplica(fresh);
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        ReplicaRoutingDataSource.useReplica(false);
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response,
+                                               Object handler) {
+        ReplicaRoutingDataSource.useReplica(false);
+    }
+}
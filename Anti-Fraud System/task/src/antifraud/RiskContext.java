@@ -0,0 +1,107 @@
+package antifraud;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+// Everything the rules look at for one transaction, gathered once by RiskEngine before any rule runs
+public class RiskContext {
+
+    private final TransactionValidator.Validated validated;
+    private final CardLimit limit;
+    private final EnumSet<FraudReason> reasons = EnumSet.noneOf(FraudReason.class);
+    private final Set<FraudReason> reasonsView = Collections.unmodifiableSet(reasons);
+
+    private long regionCount;
+    private long ipCount;
+    private boolean suspiciousIp;
+    private boolean stolenCard;
+    // Indexed by VelocityFeatures.Window ordinal; allocated only when a rule asks for them
+    private long[] cardCounts;
+    private long[] cardAmounts;
+    private long[] ipCounts;
+    private long[] ipAmounts;
+
+    RiskContext(TransactionValidator.Validated validated, CardLimit limit) {
+        this.validated = validated;
+        this.limit = limit;
+    }
+
+    public TransactionValidator.Validated getValidated() {
+        return validated;
+    }
+
+    public TransactionRequest getRequest() {
+        return validated.request();
+    }
+
+    public CardLimit getLimit() {
+        return limit;
+    }
+
+    public long getRegionCount() {
+        return regionCount;
+    }
+
+    void setRegionCount(long regionCount) {
+        this.regionCount = regionCount;
+    }
+
+    public long getIpCount() {
+        return ipCount;
+    }
+
+    void setIpCount(long ipCount) {
+        this.ipCount = ipCount;
+    }
+
+    public boolean isSuspiciousIp() {
+        return suspiciousIp;
+    }
+
+    void setSuspiciousIp(boolean suspiciousIp) {
+        this.suspiciousIp = suspiciousIp;
+    }
+
+    public boolean isStolenCard() {
+        return stolenCard;
+    }
+
+    void setStolenCard(boolean stolenCard) {
+        this.stolenCard = stolenCard;
+    }
+
+    public long getCardCount(VelocityFeatures.Window window) {
+        return cardCounts[window.ordinal()];
+    }
+
+    public long getCardAmount(VelocityFeatures.Window window) {
+        return cardAmounts[window.ordinal()];
+    }
+
+    public long getIpCount(VelocityFeatures.Window window) {
+        return ipCounts[window.ordinal()];
+    }
+
+    public long getIpAmount(VelocityFeatures.Window window) {
+        return ipAmounts[window.ordinal()];
+    }
+
+    void setCardVelocity(long[] counts, long[] amounts) {
+        this.cardCounts = counts;
+        this.cardAmounts = amounts;
+    }
+
+    void setIpVelocity(long[] counts, long[] amounts) {
+        this.ipCounts = counts;
+        this.ipAmounts = amounts;
+    }
+
+    public Set<FraudReason> getReasons() {
+        return reasonsView;
+    }
+
+    EnumSet<FraudReason> reasons() {
+        return reasons;
+    }
+}
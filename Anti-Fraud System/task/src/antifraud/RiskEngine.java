@@ -0,0 +1,134 @@
+package antifraud;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Gathers the inputs the registered rules need once, runs every rule over the shared context and folds the verdicts
+@Component
+public class RiskEngine {
+
+    public record Assessment(TransactionResult result, Set<FraudReason> reasons) {
+
+        // Sorted and joined only here, when the response is built
+        public String info() {
+            if (reasons.isEmpty()) return "none";
+            return reasons.stream().map(FraudReason::getCode).sorted().collect(Collectors.joining(", "));
+        }
+    }
+
+    private final CorrelationWindow correlationWindow;
+    private final BlacklistCache blacklistCache;
+    private final VelocityFeatures velocityFeatures;
+    private final FraudRule[] rules;
+    private final Timer[] ruleTimers;
+    private final Set<RiskInput> inputs = EnumSet.noneOf(RiskInput.class);
+    private final Map<RiskInput, Timer> inputTimers = new EnumMap<>(RiskInput.class);
+
+    public RiskEngine(List<FraudRule> rules, CorrelationWindow correlationWindow, BlacklistCache blacklistCache,
+                      VelocityFeatures velocityFeatures, MeterRegistry registry) {
+        this.correlationWindow = correlationWindow;
+        this.blacklistCache = blacklistCache;
+        this.velocityFeatures = velocityFeatures;
+
+        List<FraudRule> ordered = new ArrayList<>(rules);
+        ordered.sort(Comparator.comparing(rule -> rule.inputs().contains(RiskInput.OTHER_REASONS)));
+        this.rules = ordered.toArray(new FraudRule[0]);
+        this.ruleTimers = new Timer[this.rules.length];
+        for (int i = 0; i < this.rules.length; i++) {
+            inputs.addAll(this.rules[i].inputs());
+            ruleTimers[i] = Timer.builder("antifraud.risk.rule")
+                    .tag("rule", this.rules[i].reason().getCode()).register(registry);
+        }
+        for (RiskInput input : inputs) {
+            inputTimers.put(input, Timer.builder("antifraud.risk.input")
+                    .tag("input", input.name().toLowerCase(Locale.ROOT).replace('_', '-')).register(registry));
+        }
+    }
+
+    public Assessment evaluate(TransactionValidator.Validated validated, CardLimit limit) {
+        RiskContext context = new RiskContext(validated, limit);
+        gather(context);
+
+        // Correlation verdicts fold to MANUAL_PROCESSING as soon as one of them is borderline, the others to the worst
+        TransactionResult correlation = null;
+        TransactionResult other = null;
+        for (int i = 0; i < rules.length; i++) {
+            long started = System.nanoTime();
+            TransactionResult verdict = rules[i].evaluate(context);
+            ruleTimers[i].record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            if (verdict == null || verdict == TransactionResult.ALLOWED) continue;
+
+            FraudReason reason = rules[i].reason();
+            context.reasons().add(reason);
+            if (reason.isCorrelation()) {
+                correlation = correlation == TransactionResult.MANUAL_PROCESSING
+                        || verdict == TransactionResult.MANUAL_PROCESSING
+                        ? TransactionResult.MANUAL_PROCESSING : TransactionResult.PROHIBITED;
+            } else if (other != TransactionResult.PROHIBITED) {
+                other = verdict;
+            }
+        }
+
+        TransactionResult result;
+        if (other == TransactionResult.PROHIBITED) result = TransactionResult.PROHIBITED;
+        else if (correlation != null) result = correlation;
+        else if (other != null) result = other;
+        else result = TransactionResult.ALLOWED;
+        return new Assessment(result, context.getReasons());
+    }
+
+    private void gather(RiskContext context) {
+        TransactionRequest request = context.getRequest();
+        TransactionValidator.Validated validated = context.getValidated();
+        LocalDateTime date = request.getDate();
+        LocalDateTime start = date.minusHours(1);
+
+        if (inputs.contains(RiskInput.REGION_CORRELATION)) {
+            long started = System.nanoTime();
+            context.setRegionCount(correlationWindow.countDistinctRegions(validated.region(),
+                    validated.packedNumber(), request.getNumber(), start, date));
+            record(RiskInput.REGION_CORRELATION, started);
+        }
+        if (inputs.contains(RiskInput.IP_CORRELATION)) {
+            long started = System.nanoTime();
+            context.setIpCount(correlationWindow.countUniqueIp(validated.ip(), start, date));
+            record(RiskInput.IP_CORRELATION, started);
+        }
+        if (inputs.contains(RiskInput.SUSPICIOUS_IP)) {
+            long started = System.nanoTime();
+            context.setSuspiciousIp(blacklistCache.isSuspiciousIp(validated.ip()));
+            record(RiskInput.SUSPICIOUS_IP, started);
+        }
+        if (inputs.contains(RiskInput.STOLEN_CARD)) {
+            long started = System.nanoTime();
+            context.setStolenCard(blacklistCache.isStolenCard(validated.packedNumber(), request.getNumber()));
+            record(RiskInput.STOLEN_CARD, started);
+        }
+        if (inputs.contains(RiskInput.CARD_VELOCITY)) {
+            long started = System.nanoTime();
+            long[] counts = new long[VelocityFeatures.Window.values().length];
+            long[] amounts = new long[counts.length];
+            velocityFeatures.readCard(validated.packedNumber(), request.getNumber(), date, counts, amounts);
+            context.setCardVelocity(counts, amounts);
+            record(RiskInput.CARD_VELOCITY, started);
+        }
+        if (inputs.contains(RiskInput.IP_VELOCITY)) {
+            long started = System.nanoTime();
+            long[] counts = new long[VelocityFeatures.Window.values().length];
+            long[] amounts = new long[counts.length];
+            velocityFeatures.readIp(validated.ip(), date, counts, amounts);
+            context.setIpVelocity(counts, amounts);
+            record(RiskInput.IP_VELOCITY, started);
+        }
+    }
+
+    private void record(RiskInput input, long started) {
+        inputTimers.get(input).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,17 @@
+package antifraud;
+
+// The data a FraudRule reads from its RiskContext. RiskEngine only gathers what some registered rule asks for.
+public enum RiskInput {
+    // Distinct other regions and other IPs in the hour before the transaction
+    REGION_CORRELATION,
+    IP_CORRELATION,
+    SUSPICIOUS_IP,
+    STOLEN_CARD,
+    // Counts and amount sums per VelocityFeatures window, for the card and for the IP
+    CARD_VELOCITY,
+    IP_VELOCITY,
+    // Passed in by the caller, which may have bulk loaded it
+    CARD_LIMIT,
+    // The reasons of the rules that do not ask for this; such rules are evaluated last
+    OTHER_REASONS
+}
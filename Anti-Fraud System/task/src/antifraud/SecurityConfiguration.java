@@ -1,5 +1,7 @@
 package antifraud;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.actuate.autoconfigure.observation.ObservationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -14,6 +16,8 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
+import java.time.Duration;
+
 @Configuration
 @EnableWebSecurity
 public class SecurityConfiguration {
@@ -36,8 +40,14 @@ public class SecurityConfiguration {
                 .authorizeHttpRequests(requests -> requests
                         .requestMatchers(HttpMethod.POST, "/api/auth/user/**").permitAll()
                         .requestMatchers("/actuator/shutdown").permitAll()
+                        .requestMatchers("/actuator/cardlimits").hasRole("SUPPORT")
+                        .requestMatchers("/actuator/journal").hasRole("SUPPORT")
+                        .requestMatchers("/actuator/retention").hasRole("SUPPORT")
+                        .requestMatchers(HttpMethod.GET, "/actuator/metrics/**").hasAnyRole("ADMINISTRATOR", "SUPPORT")
+                        .requestMatchers(HttpMethod.GET, "/actuator/prometheus").hasAnyRole("ADMINISTRATOR", "SUPPORT")
                         .requestMatchers(HttpMethod.GET, "/api/auth/list").hasAnyRole("ADMINISTRATOR", "SUPPORT")
                         .requestMatchers(HttpMethod.POST, "/api/antifraud/transaction/**").hasAuthority("ROLE_MERCHANT")
+                        .requestMatchers(HttpMethod.POST, "/api/antifraud/transactions/batch").hasAuthority("ROLE_MERCHANT")
                         .requestMatchers(HttpMethod.PUT, "/api/auth/role/**").hasAuthority("ROLE_ADMINISTRATOR")
                         .requestMatchers(HttpMethod.PUT, "/api/auth/access/**").hasAuthority("ROLE_ADMINISTRATOR")
                         .requestMatchers(HttpMethod.DELETE, "/api/auth/user/{username}").hasRole("ADMINISTRATOR")
@@ -45,6 +55,8 @@ public class SecurityConfiguration {
                         .requestMatchers("/api/antifraud/stolencard/**").hasRole("SUPPORT")
                         .requestMatchers(HttpMethod.PUT, "/api/antifraud/transaction").hasRole("SUPPORT")
                         .requestMatchers(HttpMethod.GET, "/api/antifraud/history").hasRole("SUPPORT")
+                        .requestMatchers(HttpMethod.GET, "/api/antifraud/history/archive").hasRole("SUPPORT")
+                        .requestMatchers(HttpMethod.GET, "/api/antifraud/history/export").hasRole("SUPPORT")
                         .requestMatchers(HttpMethod.GET, "/api/antifraud/history/{number}").hasRole("SUPPORT")
                         .requestMatchers(new AntPathRequestMatcher("/h2-console/**")).permitAll()
                         .requestMatchers("/error").permitAll()
@@ -60,4 +72,16 @@ public class SecurityConfiguration {
     public PasswordEncoder passwordEncoder() {
         return new BCryptPasswordEncoder();
     }
+
+    @Bean
+    public CachingAuthenticationProvider authenticationProvider(AppUserDetailsServiceImpl userDetailsService,
+                                                                PasswordEncoder passwordEncoder,
+                                                                MeterRegistry registry,
+                                                                @Value("${antifraud.auth-cache.enabled:true}") boolean enabled,
+                                                                @Value("${antifraud.auth-cache.ttl:5m}") Duration ttl,
+                                                                @Value("${antifraud.auth-cache.max-size:10000}") int maxSize) {
+        var provider = new CachingAuthenticationProvider(userDetailsService, passwordEncoder, enabled, ttl, maxSize);
+        provider.bindTo(registry);
+        return provider;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package antifraud;
+
+import org.flywaydb.core.api.FlywayException;
+import org.flywaydb.core.api.callback.Callback;
+import org.flywaydb.core.api.callback.Context;
+import org.flywaydb.core.api.callback.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// After every Flyway migrate, steps each entity sequence by antifraud.id.allocation-size, the block
+// PooledLoSequenceGenerator and BlacklistTransferService take per value. A sequence whose step changes is restarted
+// at its next value: ids handed out so far, under the old step with either the pooled or the pooled-lo optimizer,
+// are all below it. Run with the service stopped; a running instance keeps using its old blocks.
+@Component
+public class SequenceIncrements implements Callback {
+
+    private static final Logger log = LoggerFactory.getLogger(SequenceIncrements.class);
+    private static final String[] SEQUENCES = {"app_user_seq", "stolen_card_seq", "sus_ip_address_seq", "transaction_seq"};
+
+    private final int allocationSize;
+
+    public SequenceIncrements(@Value("${antifraud.id.allocation-size:50}") int allocationSize) {
+        this.allocationSize = allocationSize;
+    }
+
+    @Override
+    public boolean supports(Event event, Context context) {
+        return event == Event.AFTER_MIGRATE;
+    }
+
+    @Override
+    public boolean canHandleInTransaction(Event event, Context context) {
+        return true;
+    }
+
+    @Override
+    public void handle(Event event, Context context) {
+        Connection connection = context.getConnection();
+        try {
+            for (String sequence : SEQUENCES) {
+                long increment = increment(connection, sequence);
+                if (increment == allocationSize) continue;
+                try (Statement statement = connection.createStatement()) {
+                    ResultSet next = statement.executeQuery("SELECT nextval('" + sequence + "')");
+                    next.next();
+                    long restart = next.getLong(1);
+                    statement.execute("ALTER SEQUENCE " + sequence + " RESTART WITH " + restart
+                            + " INCREMENT BY " + allocationSize);
+                    log.info("Sequence {} now steps by {} from {}, was by {}", sequence, allocationSize, restart, increment);
+                }
+            }
+        } catch (SQLException e) {
+            throw new FlywayException("Could not set the sequence increments", e);
+        }
+    }
+
+    @Override
+    public String getCallbackName() {
+        return "sequence-increments";
+    }
+
+    private static long increment(Connection connection, String sequence) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT increment FROM information_schema.sequences WHERE LOWER(sequence_name) = ?")) {
+            statement.setString(1, sequence);
+            ResultSet result = statement.executeQuery();
+            if (!result.next()) throw new SQLException("No sequence " + sequence);
+            return result.getLong(1);
+        }
+    }
+}
@@ -3,12 +3,16 @@ package antifraud;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 @Entity
 public class StolenCard {
 
     @Id
-    @GeneratedValue()
+    @GeneratedValue(generator = "stolen_card_seq")
+    @GenericGenerator(name = "stolen_card_seq", strategy = "antifraud.PooledLoSequenceGenerator",
+            parameters = @Parameter(name = "sequence_name", value = "stolen_card_seq"))
     private long id;
     private String number;
 
@@ -0,0 +1,27 @@
+package antifraud;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+@Component
+public class StolenCardRule implements FraudRule {
+
+    private static final Set<RiskInput> INPUTS = EnumSet.of(RiskInput.STOLEN_CARD);
+
+    @Override
+    public FraudReason reason() {
+        return FraudReason.CARD_NUMBER;
+    }
+
+    @Override
+    public Set<RiskInput> inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public TransactionResult evaluate(RiskContext context) {
+        return context.isStolenCard() ? TransactionResult.PROHIBITED : null;
+    }
+}
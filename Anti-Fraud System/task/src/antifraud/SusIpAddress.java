@@ -3,12 +3,16 @@ package antifraud;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 @Entity
 public class SusIpAddress {
 
     @Id
-    @GeneratedValue()
+    @GeneratedValue(generator = "sus_ip_address_seq")
+    @GenericGenerator(name = "sus_ip_address_seq", strategy = "antifraud.PooledLoSequenceGenerator",
+            parameters = @Parameter(name = "sequence_name", value = "sus_ip_address_seq"))
     private long id;
     private String ip;
 
@@ -0,0 +1,27 @@
+package antifraud;
+
+import org.springframework.stereotype.Component;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+@Component
+public class SuspiciousIpRule implements FraudRule {
+
+    private static final Set<RiskInput> INPUTS = EnumSet.of(RiskInput.SUSPICIOUS_IP);
+
+    @Override
+    public FraudReason reason() {
+        return FraudReason.IP;
+    }
+
+    @Override
+    public Set<RiskInput> inputs() {
+        return INPUTS;
+    }
+
+    @Override
+    public TransactionResult evaluate(RiskContext context) {
+        return context.isSuspiciousIp() ? TransactionResult.PROHIBITED : null;
+    }
+}
@@ -0,0 +1,53 @@
+package antifraud;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.support.TaskExecutorAdapter;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// antifraud.threads=virtual runs request handling and MVC async work (the history export) on virtual threads.
+// Concurrency is then bounded by the connection pool, so tune spring.datasource.hikari.maximum-pool-size
+// instead of server.tomcat.threads.max.
+//
+// Not yet measured against platform mode; that needs loadTest on Java 21. Our own code only takes ReentrantLocks
+// (CardLocks, CorrelationWindow, VelocityFeatures), but both drivers hold a monitor across the database call: H2
+// 2.1 synchronizes its statements on the session and pgjdbc 42.5 synchronizes QueryExecutorImpl.execute. A virtual
+// thread waiting on the database therefore pins its carrier, and database-bound work is capped by the number of
+// carriers rather than the pool. -Djdk.tracePinnedThreads=short shows where.
+@Configuration
+@ConditionalOnProperty(name = "antifraud.threads", havingValue = "virtual")
+public class ThreadingConfiguration {
+
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService virtualThreadExecutor() {
+        return newVirtualThreadPerTaskExecutor();
+    }
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandler(ExecutorService virtualThreadExecutor) {
+        return protocolHandler -> protocolHandler.setExecutor(virtualThreadExecutor);
+    }
+
+    // The name Spring MVC looks up for its async executor
+    @Bean
+    public AsyncTaskExecutor applicationTaskExecutor(ExecutorService virtualThreadExecutor) {
+        return new TaskExecutorAdapter(virtualThreadExecutor);
+    }
+
+    // Looked up reflectively so the project still builds for Java 17, where the mode is refused at startup
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("antifraud.threads=virtual needs Java 21 or later, this is Java "
+                    + Runtime.version().feature());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create the virtual thread executor", e);
+        }
+    }
+}
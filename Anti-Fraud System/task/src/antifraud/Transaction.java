@@ -1,9 +1,12 @@
 package antifraud;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.Id;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import java.time.LocalDateTime;
 
@@ -11,15 +14,20 @@ import java.time.LocalDateTime;
 public class Transaction {
 
     @Id
-    @GeneratedValue
+    @GeneratedValue(generator = "transaction_seq")
+    @GenericGenerator(name = "transaction_seq", strategy = "antifraud.PooledLoSequenceGenerator",
+            parameters = @Parameter(name = "sequence_name", value = "transaction_seq"))
     @JsonProperty("transactionId")
     private long id;
     private long amount;
     private String ip;
     private String number;
+    @Convert(converter = RegionConverter.class)
     private String region;
     private LocalDateTime date;
+    @Convert(converter = TransactionResultConverter.class)
     private String result;
+    @Convert(converter = TransactionResultConverter.class)
     private String feedback;
 
     public String getResult() {
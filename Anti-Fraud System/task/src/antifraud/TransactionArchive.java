@@ -0,0 +1,570 @@
+package antifraud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Cold storage for the transactions TransactionRetention takes out of the table, in compressed columnar segments.
+// Each archive run of a day writes one file, transactions-<day>-<n>.seg. It is written and forced as a .partial file
+// inside the database transaction that takes its rows out of the table, renamed into place once that commits and
+// deleted if it rolls back. Rows are cut into segments of SEGMENT_ROWS in the order they come, by card number and id
+// from TransactionRetention, so a segment covers a narrow range of numbers. The footer keeps each segment's least
+// and greatest id, date and number and find() reads only the segments, of the days, that can match. A complete
+// .partial file found at startup is put in place, as its transaction may have committed before the process died;
+// if it had not, its transactions are both here and in the table until a later run archives them again, so find()
+// keeps one copy of an id.
+//
+// File:    segments | footer | segment count (int) | footer offset (long) | MAGIC (int)
+// Footer:  per segment offset (long) | length, inflated length, rows (ints) | min, max id | min, max epoch second
+//          (longs) | min, max number (UTF)
+// Segment: deflated columns of all its rows: id and epoch second (each a varlong, then zigzag varlong deltas) | nano
+//          (varints) | amount (bit-packed above the least) | ip (ints) | number (a dictionary of the distinct UTF-8
+//          numbers, each after its length, then bit-packed indexes into it) | region, result and feedback (each a
+//          dictionary of the distinct codes, then bit-packed indexes)
+@Component
+public class TransactionArchive {
+
+    static final int SEGMENT_ROWS = 1024;
+
+    private static final int MAGIC = 0x41524331;
+    private static final int TRAILER = 16;
+    private static final String PREFIX = "transactions-";
+    private static final String SUFFIX = ".seg";
+    private static final String PARTIAL = ".partial";
+
+    private record Segment(long offset, int length, int inflatedLength, int rows, long minId, long maxId,
+                           long minSecond, long maxSecond, String minNumber, String maxNumber) {
+
+        boolean matches(String number, long fromSecond, long toSecond, long afterId) {
+            return maxId > afterId && maxSecond >= fromSecond && minSecond <= toSecond
+                    && (number == null || number.compareTo(minNumber) >= 0 && number.compareTo(maxNumber) <= 0);
+        }
+    }
+
+    private record Candidate(Path file, Segment segment) {}
+
+    private final Path dir;
+    private final Counter segmentsRead;
+    private final Counter segmentsSkipped;
+    // Footers of the files seen so far; a file does not change once renamed into place
+    private final Map<Path, List<Segment>> footers = new ConcurrentHashMap<>();
+
+    public TransactionArchive(@Value("${antifraud.archive.dir:../archive}") String dir, MeterRegistry registry) {
+        this.dir = Path.of(dir);
+        this.segmentsRead = Counter.builder("antifraud.archive.segments").tag("outcome", "read").register(registry);
+        this.segmentsSkipped = Counter.builder("antifraud.archive.segments").tag("outcome", "skipped")
+                .register(registry);
+    }
+
+    // Puts the complete files of runs that died between their commit and the rename in place; torn ones never
+    // committed, as the file is forced before the transaction commits
+    @PostConstruct
+    public void recover() throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        List<Path> partials;
+        try (Stream<Path> files = Files.list(dir)) {
+            partials = files.filter(file -> file.getFileName().toString().endsWith(SUFFIX + PARTIAL)).toList();
+        }
+        for (Path partial : partials) {
+            String name = partial.getFileName().toString();
+            if (isComplete(partial)) {
+                Files.move(partial, partial.resolveSibling(name.substring(0, name.length() - PARTIAL.length())),
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.delete(partial);
+            }
+        }
+    }
+
+    private static boolean isComplete(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            return size >= TRAILER && readFully(channel, size - 4, 4).getInt() == MAGIC;
+        }
+    }
+
+    public Day append(LocalDate day) throws IOException {
+        Files.createDirectories(dir);
+        int n = 0;
+        // Past a .partial file too, which a failed rename leaves for recover()
+        while (Files.exists(dir.resolve(PREFIX + day + "-" + n + SUFFIX))
+                || Files.exists(dir.resolve(PREFIX + day + "-" + n + SUFFIX + PARTIAL))) {
+            n++;
+        }
+        return new Day(dir.resolve(PREFIX + day + "-" + n + SUFFIX));
+    }
+
+    // The archived transactions of the card, or of every card when number is null, dated from from to to (either
+    // open when null) with ids above afterId: the first limit of them in id order, as the history endpoints page
+    public List<Transaction> find(String number, LocalDateTime from, LocalDateTime to, long afterId, int limit)
+            throws IOException {
+        long fromSecond = from == null ? Long.MIN_VALUE : from.toEpochSecond(ZoneOffset.UTC);
+        long toSecond = to == null ? Long.MAX_VALUE : to.toEpochSecond(ZoneOffset.UTC);
+        List<Candidate> candidates = new ArrayList<>();
+        for (Path file : files()) {
+            LocalDate day = LocalDate.parse(file.getFileName().toString().substring(PREFIX.length(),
+                    PREFIX.length() + 10));
+            if (from != null && day.isBefore(from.toLocalDate()) || to != null && day.isAfter(to.toLocalDate())) {
+                continue;
+            }
+            for (Segment segment : footer(file)) {
+                if (!segment.matches(number, fromSecond, toSecond, afterId)) segmentsSkipped.increment();
+                else candidates.add(new Candidate(file, segment));
+            }
+        }
+
+        // In id order, so once limit transactions are found the segments starting after the last of them are skipped
+        candidates.sort(Comparator.comparingLong(candidate -> candidate.segment().minId()));
+        TreeMap<Long, CompactTransaction> found = new TreeMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate candidate = candidates.get(i);
+            if (found.size() == limit && candidate.segment().minId() > found.lastKey()) {
+                segmentsSkipped.increment(candidates.size() - i);
+                break;
+            }
+            segmentsRead.increment();
+            read(candidate.file(), candidate.segment(), number, from, to, afterId, trans -> {
+                found.put(trans.id(), trans);
+                if (found.size() > limit) found.pollLastEntry();
+            });
+        }
+        List<Transaction> result = new ArrayList<>(found.size());
+        for (CompactTransaction trans : found.values()) result.add(trans.toTransaction());
+        return result;
+    }
+
+    // The ids of the archived transactions dated on the day
+    public LongHashSet ids(LocalDate day) throws IOException {
+        LongHashSet ids = new LongHashSet(SEGMENT_ROWS);
+        String prefix = PREFIX + day + "-";
+        for (Path file : files()) {
+            if (!file.getFileName().toString().startsWith(prefix)) continue;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                for (Segment segment : footer(file)) {
+                    // The id column comes first
+                    ByteBuffer in = inflate(readFully(channel, segment.offset(), segment.length()).array(),
+                            segment.inflatedLength());
+                    long[] segmentIds = new long[segment.rows()];
+                    readDeltas(in, segmentIds, segment.rows());
+                    for (long id : segmentIds) ids.add(id);
+                }
+            } catch (NoSuchFileException e) {
+                // Deleted since it was listed
+            }
+        }
+        return ids;
+    }
+
+    private List<Path> files() throws IOException {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            List<Path> found = files.filter(file -> {
+                String name = file.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).sorted().toList();
+            footers.keySet().retainAll(new HashSet<>(found));
+            return found;
+        }
+    }
+
+    private List<Segment> footer(Path file) throws IOException {
+        List<Segment> segments = footers.get(file);
+        if (segments != null) return segments;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < TRAILER) throw new IOException("Not an archive file: " + file);
+            ByteBuffer trailer = readFully(channel, size - TRAILER, TRAILER);
+            int count = trailer.getInt();
+            long offset = trailer.getLong();
+            if (trailer.getInt() != MAGIC) throw new IOException("Not an archive file: " + file);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    readFully(channel, offset, (int) (size - TRAILER - offset)).array()));
+            segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                segments.add(new Segment(in.readLong(), in.readInt(), in.readInt(), in.readInt(), in.readLong(),
+                        in.readLong(),
+                        in.readLong(), in.readLong(), in.readUTF(), in.readUTF()));
+            }
+        }
+        footers.put(file, segments);
+        return segments;
+    }
+
+    // Inflates the segment and builds a CompactTransaction of each row that matches, taking the columns one by one
+    private static void read(Path file, Segment segment, String number, LocalDateTime from, LocalDateTime to,
+                             long afterId, Consumer<CompactTransaction> matches) throws IOException {
+        byte[] bytes;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            bytes = readFully(channel, segment.offset(), segment.length()).array();
+        } catch (NoSuchFileException e) {
+            // Deleted since it was listed
+            return;
+        }
+        ByteBuffer in = inflate(bytes, segment.inflatedLength());
+        int rows = segment.rows();
+        long[] ids = new long[rows];
+        long[] seconds = new long[rows];
+        long[] nanos = new long[rows];
+        long[] amounts = new long[rows];
+        int[] ips = new int[rows];
+        long[] numbers = new long[rows];
+        long[] regions = new long[rows];
+        long[] results = new long[rows];
+        long[] feedbacks = new long[rows];
+        readDeltas(in, ids, rows);
+        readDeltas(in, seconds, rows);
+        for (int i = 0; i < rows; i++) nanos[i] = readVarLong(in);
+        long minAmount = readVarLong(in);
+        unpack(in, amounts, rows, in.get() & 0xFF);
+        for (int i = 0; i < rows; i++) amounts[i] += minAmount;
+        for (int i = 0; i < rows; i++) ips[i] = in.getInt();
+
+        // Numbers stay bytes until a row of theirs matches
+        int[] numberOffsets = new int[(int) readVarLong(in)];
+        int[] numberLengths = new int[numberOffsets.length];
+        String[] numberTexts = new String[numberOffsets.length];
+        byte[] wanted = number == null ? null : number.getBytes(StandardCharsets.UTF_8);
+        int wantedIndex = -1;
+        for (int i = 0; i < numberOffsets.length; i++) {
+            numberLengths[i] = (int) readVarLong(in);
+            numberOffsets[i] = in.position();
+            in.position(in.position() + numberLengths[i]);
+            if (wanted != null && Arrays.equals(wanted, 0, wanted.length,
+                    in.array(), numberOffsets[i], numberOffsets[i] + numberLengths[i])) wantedIndex = i;
+        }
+        if (wanted != null && wantedIndex < 0) return;
+        unpack(in, numbers, rows, width(numberOffsets.length - 1));
+        byte[] regionDictionary = readDictionary(in, regions, rows);
+        byte[] resultDictionary = readDictionary(in, results, rows);
+        byte[] feedbackDictionary = readDictionary(in, feedbacks, rows);
+
+        long fromSecond = from == null ? 0 : from.toEpochSecond(ZoneOffset.UTC);
+        long toSecond = to == null ? 0 : to.toEpochSecond(ZoneOffset.UTC);
+        for (int i = 0; i < rows; i++) {
+            int index = (int) numbers[i];
+            if (ids[i] <= afterId || wanted != null && index != wantedIndex) continue;
+            if (from != null && (seconds[i] < fromSecond || seconds[i] == fromSecond && nanos[i] < from.getNano())
+                    || to != null && (seconds[i] > toSecond || seconds[i] == toSecond && nanos[i] > to.getNano())) {
+                continue;
+            }
+            if (numberTexts[index] == null) {
+                numberTexts[index] = new String(in.array(), numberOffsets[index], numberLengths[index],
+                        StandardCharsets.UTF_8);
+            }
+            long packed = CardNumbers.pack(numberTexts[index]);
+            matches.accept(new CompactTransaction(ids[i], amounts[i], ips[i], packed,
+                    packed == CardNumbers.UNPACKABLE ? numberTexts[index] : null,
+                    regionDictionary[(int) regions[i]], resultDictionary[(int) results[i]],
+                    feedbackDictionary[(int) feedbacks[i]], seconds[i], (int) nanos[i]));
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) throw new EOFException();
+        }
+        return buffer.flip();
+    }
+
+    // Written to a .partial file, completed on close and renamed into place by publish
+    public class Day implements Closeable {
+
+        private final Path file;
+        private final Path partial;
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final List<Segment> segments = new ArrayList<>();
+        private final CompactTransaction[] rows = new CompactTransaction[SEGMENT_ROWS];
+        private int count;
+        private long offset;
+        private boolean closed;
+
+        private Day(Path file) throws IOException {
+            this.file = file;
+            this.partial = file.resolveSibling(file.getFileName() + PARTIAL);
+            this.channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        }
+
+        public void write(CompactTransaction trans) throws IOException {
+            rows[count++] = trans;
+            if (count == SEGMENT_ROWS) writeSegment();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try (channel) {
+                if (count > 0) writeSegment();
+                if (segments.isEmpty()) {
+                    Files.delete(partial);
+                    return;
+                }
+                for (Segment segment : segments) {
+                    out.writeLong(segment.offset());
+                    out.writeInt(segment.length());
+                    out.writeInt(segment.inflatedLength());
+                    out.writeInt(segment.rows());
+                    out.writeLong(segment.minId());
+                    out.writeLong(segment.maxId());
+                    out.writeLong(segment.minSecond());
+                    out.writeLong(segment.maxSecond());
+                    out.writeUTF(segment.minNumber());
+                    out.writeUTF(segment.maxNumber());
+                }
+                out.writeInt(segments.size());
+                out.writeLong(offset);
+                out.writeInt(MAGIC);
+                out.flush();
+                channel.force(true);
+            }
+        }
+
+        // Once the rows written are out of the table
+        public void publish() throws IOException {
+            close();
+            if (!segments.isEmpty()) Files.move(partial, file, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        // When the rows written stay in the table
+        public void discard() throws IOException {
+            closed = true;
+            try (channel) {
+                Files.deleteIfExists(partial);
+            }
+        }
+
+        private void writeSegment() throws IOException {
+            long minId = Long.MAX_VALUE, maxId = Long.MIN_VALUE;
+            long minSecond = Long.MAX_VALUE, maxSecond = Long.MIN_VALUE;
+            long minAmount = Long.MAX_VALUE, maxAmount = Long.MIN_VALUE;
+            String minNumber = null, maxNumber = null;
+            Map<String, Integer> numbers = new LinkedHashMap<>();
+            long[] numberIndexes = new long[count];
+            for (int i = 0; i < count; i++) {
+                CompactTransaction trans = rows[i];
+                minId = Math.min(minId, trans.id());
+                maxId = Math.max(maxId, trans.id());
+                minSecond = Math.min(minSecond, trans.second());
+                maxSecond = Math.max(maxSecond, trans.second());
+                minAmount = Math.min(minAmount, trans.amount());
+                maxAmount = Math.max(maxAmount, trans.amount());
+                String number = trans.numberText();
+                if (minNumber == null || number.compareTo(minNumber) < 0) minNumber = number;
+                if (maxNumber == null || number.compareTo(maxNumber) > 0) maxNumber = number;
+                numberIndexes[i] = numbers.computeIfAbsent(number, key -> numbers.size());
+            }
+
+            ByteArrayOutputStream columns = new ByteArrayOutputStream();
+            try (DataOutputStream column = new DataOutputStream(columns)) {
+                long[] values = new long[count];
+                for (int i = 0; i < count; i++) values[i] = rows[i].id();
+                writeDeltas(column, values, count);
+                for (int i = 0; i < count; i++) values[i] = rows[i].second();
+                writeDeltas(column, values, count);
+                for (int i = 0; i < count; i++) writeVarLong(column, rows[i].nano());
+                writeVarLong(column, minAmount);
+                for (int i = 0; i < count; i++) values[i] = rows[i].amount() - minAmount;
+                int amountWidth = width(maxAmount - minAmount);
+                column.writeByte(amountWidth);
+                pack(column, values, count, amountWidth);
+                for (int i = 0; i < count; i++) column.writeInt(rows[i].ip());
+                writeVarLong(column, numbers.size());
+                for (String number : numbers.keySet()) {
+                    byte[] text = number.getBytes(StandardCharsets.UTF_8);
+                    writeVarLong(column, text.length);
+                    column.write(text);
+                }
+                pack(column, numberIndexes, count, width(numbers.size() - 1));
+                for (int i = 0; i < count; i++) values[i] = rows[i].region();
+                writeDictionary(column, values, count);
+                for (int i = 0; i < count; i++) values[i] = rows[i].result();
+                writeDictionary(column, values, count);
+                for (int i = 0; i < count; i++) values[i] = rows[i].feedback();
+                writeDictionary(column, values, count);
+            }
+
+            byte[] bytes = deflate(columns.toByteArray());
+            out.write(bytes);
+            segments.add(new Segment(offset, bytes.length, columns.size(), count, minId, maxId, minSecond, maxSecond,
+                    minNumber, maxNumber));
+            offset += bytes.length;
+            Arrays.fill(rows, 0, count, null);
+            count = 0;
+        }
+    }
+
+    private static byte[] deflate(byte[] columns) {
+        Deflater deflater = new Deflater();
+        try {
+            deflater.setInput(columns);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(columns.length / 2);
+            byte[] buffer = new byte[1 << 16];
+            while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // In one call, the whole segment being in memory anyway
+    private static ByteBuffer inflate(byte[] bytes, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes);
+            byte[] columns = new byte[length];
+            if (inflater.inflate(columns) != length || !inflater.finished()) {
+                throw new IOException("Corrupt archive segment");
+            }
+            return ByteBuffer.wrap(columns);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive segment", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeDeltas(DataOutput out, long[] values, int count) throws IOException {
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            writeVarLong(out, zigzag(values[i] - previous));
+            previous = values[i];
+        }
+    }
+
+    private static void readDeltas(ByteBuffer in, long[] values, int count) {
+        long previous = 0;
+        for (int i = 0; i < count; i++) {
+            long delta = readVarLong(in);
+            previous += (delta >>> 1) ^ -(delta & 1);
+            values[i] = previous;
+        }
+    }
+
+    // Codes (a byte each, -1 for no feedback) as their distinct values in order of appearance and indexes into those
+    private static void writeDictionary(DataOutput out, long[] codes, int count) throws IOException {
+        List<Long> dictionary = new ArrayList<>();
+        long[] indexes = new long[count];
+        for (int i = 0; i < count; i++) {
+            int index = dictionary.indexOf(codes[i]);
+            if (index < 0) {
+                index = dictionary.size();
+                dictionary.add(codes[i]);
+            }
+            indexes[i] = index;
+        }
+        out.writeByte(dictionary.size());
+        for (long code : dictionary) out.writeByte((int) code);
+        pack(out, indexes, count, width(dictionary.size() - 1));
+    }
+
+    private static byte[] readDictionary(ByteBuffer in, long[] indexes, int count) {
+        byte[] dictionary = new byte[in.get() & 0xFF];
+        in.get(dictionary);
+        unpack(in, indexes, count, width(dictionary.length - 1));
+        return dictionary;
+    }
+
+    // Bits needed for values up to max
+    private static int width(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    // The low width bits of each value, least significant first, in big-endian longs and the tail in as few bytes
+    private static void pack(DataOutput out, long[] values, int count, int width) throws IOException {
+        long buffer = 0;
+        int used = 0;
+        for (int i = 0; i < count; i++) {
+            long value = values[i];
+            for (int remaining = width; remaining > 0; ) {
+                int take = Math.min(remaining, 64 - used);
+                buffer |= (take == 64 ? value : value & (1L << take) - 1) << used;
+                value = take == 64 ? 0 : value >>> take;
+                used += take;
+                remaining -= take;
+                if (used == 64) {
+                    out.writeLong(buffer);
+                    buffer = 0;
+                    used = 0;
+                }
+            }
+        }
+        for (int bit = 0; bit < used; bit += 8) out.writeByte((int) (buffer >>> bit));
+    }
+
+    private static void unpack(ByteBuffer in, long[] values, int count, int width) {
+        long left = (long) count * width;
+        long buffer = 0;
+        int available = 0;
+        for (int i = 0; i < count; i++) {
+            long value = 0;
+            for (int got = 0; got < width; ) {
+                if (available == 0) {
+                    if (left >= 64) {
+                        buffer = in.getLong();
+                        available = 64;
+                    } else {
+                        buffer = 0;
+                        for (int bit = 0; bit < left; bit += 8) buffer |= (in.get() & 0xFFL) << bit;
+                        available = (int) left;
+                    }
+                    left -= available;
+                }
+                int take = Math.min(width - got, available);
+                value |= (take == 64 ? buffer : buffer & (1L << take) - 1) << got;
+                buffer = take == 64 ? 0 : buffer >>> take;
+                available -= take;
+                got += take;
+            }
+            values[i] = value;
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) return value;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package antifraud;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+// The wall clock that transaction dates, which come from the client, are held against. The in-memory windows keep
+// their own time from those dates, so a date far ahead would move them past everything they hold; nothing is let
+// past the horizon, now in the server's zone plus antifraud.date.max-skew.
+@Component
+public class TransactionClock {
+
+    private final Duration maxSkew;
+
+    public TransactionClock(@Value("${antifraud.date.max-skew:5m}") Duration maxSkew) {
+        if (maxSkew.isNegative()) throw new IllegalArgumentException("antifraud.date.max-skew must not be negative");
+        this.maxSkew = maxSkew;
+    }
+
+    public LocalDateTime now() {
+        return LocalDateTime.now();
+    }
+
+    public LocalDateTime horizon() {
+        return now().plus(maxSkew);
+    }
+}
@@ -0,0 +1,45 @@
+package antifraud;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.persistence.EntityManager;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+@Service
+public class TransactionExportService {
+
+    private final TransactionRepository transactionRepository;
+    private final EntityManager entityManager;
+    private final ObjectWriter writer;
+
+    public TransactionExportService(TransactionRepository transactionRepository, EntityManager entityManager,
+                                    ObjectMapper objectMapper) {
+        this.transactionRepository = transactionRepository;
+        this.entityManager = entityManager;
+        this.writer = objectMapper.writer().without(SerializationFeature.INDENT_OUTPUT);
+    }
+
+    // One JSON object per line, written as rows come off the cursor; each row is detached once written
+    @Transactional(readOnly = true)
+    public void writeNdjson(String number, OutputStream out) throws IOException {
+        try (Stream<Transaction> rows = number == null
+                ? transactionRepository.streamAllByOrderById()
+                : transactionRepository.streamByNumberOrderById(number)) {
+            Iterator<Transaction> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                Transaction trans = iterator.next();
+                out.write(writer.writeValueAsBytes(trans));
+                out.write('\n');
+                entityManager.detach(trans);
+            }
+        }
+        out.flush();
+    }
+}
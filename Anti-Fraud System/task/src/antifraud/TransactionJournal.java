@@ -0,0 +1,335 @@
+package antifraud;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+// Append-only audit journal of stored transactions, in fixed 64-byte slots of memory-mapped segment files.
+// A record is appended once its row is committed and again when feedback is given, so the last record for an id
+// is its current state. Positions count slots from the start of the journal; each segment file is named after the
+// position of its first slot. A card number that does not pack into a long follows its record in extra slots.
+//
+// Slot layout, the fields of CompactTransaction: crc32c of bytes 4-63 | kind | region | result | feedback | id
+//              | amount | ip | nano | epoch second | packed number | length of the unpacked number | zero padding
+@Component
+public class TransactionJournal {
+
+    static final int SLOT = 64;
+
+    private static final byte TRANSACTION = 1;
+    private static final byte NUMBER = 2;
+    private static final int NUMBER_BYTES = SLOT - 5;
+    private static final int RESTORE_BATCH = 1000;
+    private static final String SUFFIX = ".journal";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionArchive archive;
+    private final boolean enabled;
+    private final boolean fsync;
+    private final Path dir;
+    private final long segmentSlots;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private MappedByteBuffer segment;
+    private long base;
+    private long end;
+
+    public TransactionJournal(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                              TransactionArchive archive,
+                              @Value("${antifraud.journal.enabled:false}") boolean enabled,
+                              @Value("${antifraud.journal.fsync:false}") boolean fsync,
+                              @Value("${antifraud.journal.dir:../journal}") String dir,
+                              @Value("${antifraud.journal.segment-size:64MB}") DataSize segmentSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.archive = archive;
+        this.enabled = enabled;
+        this.fsync = fsync;
+        this.dir = Path.of(dir);
+        this.segmentSlots = Math.max(1, Math.min(segmentSize.toBytes(), Integer.MAX_VALUE) / SLOT);
+    }
+
+    // Finds the end of the last segment; a torn record there was never acknowledged and is wiped
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) return;
+        Files.createDirectories(dir);
+        List<Long> bases = segments();
+        map(bases.isEmpty() ? 0 : bases.get(bases.size() - 1));
+
+        int slot = 0;
+        int slots = segment.capacity() / SLOT;
+        while (slot < slots) {
+            int length = recordSlots(segment, slot, slots);
+            if (length == 0) break;
+            slot += length;
+        }
+        end = base + slot;
+        for (int at = slot; at < slots && segment.get(at * SLOT + 4) != 0; at++) {
+            segment.put(at * SLOT, new byte[SLOT]);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        lock.lock();
+        try {
+            if (segment != null) segment.force();
+            segment = null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long end() {
+        lock.lock();
+        try {
+            return end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void append(Transaction trans) {
+        appendAll(List.of(trans));
+    }
+
+    // Once this returns the records survive a crash of the process; with antifraud.journal.fsync also of the machine
+    public void appendAll(Collection<Transaction> transactions) {
+        if (!enabled || transactions.isEmpty()) return;
+        lock.lock();
+        try {
+            long from = end;
+            for (Transaction trans : transactions) {
+                if (write(CompactTransaction.of(trans)) && fsync) from = base;
+            }
+            if (fsync) segment.force((int) ((from - base) * SLOT), (int) ((end - from) * SLOT));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Calls back with every record at or after the position (one returned by end() or an earlier read),
+    // oldest first, and returns the position after the last one
+    public long read(long from, Consumer<CompactTransaction> consumer) throws IOException {
+        if (!enabled) return from;
+        long until = end();
+        List<Long> bases = segments();
+        for (int i = 0; i < bases.size(); i++) {
+            long segmentBase = bases.get(i);
+            long segmentEnd = i + 1 < bases.size() ? bases.get(i + 1) : until;
+            if (segmentEnd <= from) continue;
+
+            ByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file(segmentBase), StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int slots = (int) Math.min(buffer.capacity() / SLOT, segmentEnd - segmentBase);
+            int slot = (int) Math.max(0, from - segmentBase);
+            while (slot < slots && buffer.get(slot * SLOT + 4) != 0) {
+                int length = recordSlots(buffer, slot, slots);
+                if (length == 0) throw new IllegalStateException("Corrupt journal record at " + (segmentBase + slot));
+                consumer.accept(decode(buffer, slot));
+                slot += length;
+            }
+        }
+        return until;
+    }
+
+    // Writes every journaled transaction back into the transaction table, later records replacing earlier ones,
+    // and moves transaction_seq past the highest id. Meant for an idle service whose table was lost or damaged.
+    // A transaction without feedback that TransactionRetention has moved to the archive is left there, or history
+    // would list it twice and the next retention run archive it again.
+    public long restore() throws IOException {
+        Map<Long, CompactTransaction> chunk = new LinkedHashMap<>();
+        // Archived ids by day, read once per day the journal reaches
+        Map<LocalDate, LongHashSet> archived = new HashMap<>();
+        long[] restored = {0};
+        read(0, trans -> {
+            chunk.put(trans.id(), trans);
+            if (chunk.size() == RESTORE_BATCH) {
+                restored[0] += upsert(unarchived(chunk.values(), archived));
+                chunk.clear();
+            }
+        });
+        restored[0] += upsert(unarchived(chunk.values(), archived));
+
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM transaction", Long.class);
+        // Hibernate hands out the ids from each sequence value up
+        if (maxId != null) jdbcTemplate.execute("ALTER SEQUENCE transaction_seq RESTART WITH " + (maxId + 1));
+        return restored[0];
+    }
+
+    private List<CompactTransaction> unarchived(Collection<CompactTransaction> transactions,
+                                                Map<LocalDate, LongHashSet> archived) {
+        List<CompactTransaction> kept = new ArrayList<>(transactions.size());
+        for (CompactTransaction trans : transactions) {
+            if (trans.feedback() < 0) {
+                LongHashSet ids = archived.computeIfAbsent(trans.date().toLocalDate(), day -> {
+                    try {
+                        return archive.ids(day);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                if (ids.contains(trans.id())) continue;
+            }
+            kept.add(trans);
+        }
+        return kept;
+    }
+
+    private int upsert(Collection<CompactTransaction> transactions) {
+        if (transactions.isEmpty()) return 0;
+        List<Object[]> ids = new ArrayList<>(transactions.size());
+        List<Object[]> rows = new ArrayList<>(transactions.size());
+        for (CompactTransaction trans : transactions) {
+            ids.add(new Object[]{trans.id()});
+            rows.add(new Object[]{trans.id(), trans.amount(), Timestamp.valueOf(trans.date()),
+                    trans.feedback() < 0 ? null : trans.feedback(), Ipv4.format(trans.ip()), trans.numberText(),
+                    trans.region(), trans.result()});
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate("DELETE FROM transaction WHERE id = ?", ids);
+            jdbcTemplate.batchUpdate("INSERT INTO transaction (id, amount, date, feedback, ip, number, region, result) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?)", rows);
+        });
+        return rows.size();
+    }
+
+    // Returns whether it rolled to a new segment first
+    private boolean write(CompactTransaction trans) {
+        byte[] unpacked = trans.unpackedNumber() == null ? null : trans.unpackedNumber().getBytes(StandardCharsets.UTF_8);
+        int slots = 1 + (unpacked == null ? 0 : (unpacked.length + NUMBER_BYTES - 1) / NUMBER_BYTES);
+        if (slots > segmentSlots) throw new IllegalArgumentException("Card number too long for the journal");
+
+        boolean rolled = end - base + slots > segmentSlots;
+        if (rolled) roll();
+
+        int at = (int) (end - base) * SLOT;
+        ByteBuffer slot = segment.slice(at, SLOT);
+        slot.put(4, TRANSACTION)
+                .put(5, trans.region())
+                .put(6, trans.result())
+                .put(7, trans.feedback())
+                .putLong(8, trans.id())
+                .putLong(16, trans.amount())
+                .putInt(24, trans.ip())
+                .putInt(28, trans.nano())
+                .putLong(32, trans.second())
+                .putLong(40, trans.number())
+                .putShort(48, (short) (unpacked == null ? 0 : unpacked.length));
+        seal(slot);
+
+        for (int i = 1; i < slots; i++) {
+            ByteBuffer extra = segment.slice(at + i * SLOT, SLOT);
+            int offset = (i - 1) * NUMBER_BYTES;
+            extra.put(4, NUMBER).put(5, unpacked, offset, Math.min(NUMBER_BYTES, unpacked.length - offset));
+            seal(extra);
+        }
+        end += slots;
+        return rolled;
+    }
+
+    private static CompactTransaction decode(ByteBuffer buffer, int slot) {
+        ByteBuffer record = buffer.slice(slot * SLOT, SLOT);
+        long packed = record.getLong(40);
+        String unpacked = null;
+        if (packed == CardNumbers.UNPACKABLE) {
+            byte[] bytes = new byte[record.getShort(48)];
+            for (int i = 0; i < bytes.length; i += NUMBER_BYTES) {
+                buffer.get((slot + 1 + i / NUMBER_BYTES) * SLOT + 5, bytes, i, Math.min(NUMBER_BYTES, bytes.length - i));
+            }
+            unpacked = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new CompactTransaction(record.getLong(8), record.getLong(16), record.getInt(24), packed, unpacked,
+                record.get(5), record.get(6), record.get(7), record.getLong(32), record.getInt(28));
+    }
+
+    // Slots taken by the complete, intact record at slot, or 0 if there is none
+    private static int recordSlots(ByteBuffer buffer, int slot, int slots) {
+        if (buffer.get(slot * SLOT + 4) != TRANSACTION || !isIntact(buffer, slot)) return 0;
+        int length = 1;
+        if (buffer.getLong(slot * SLOT + 40) == CardNumbers.UNPACKABLE) {
+            length += (buffer.getShort(slot * SLOT + 48) + NUMBER_BYTES - 1) / NUMBER_BYTES;
+        }
+        if (slot + length > slots) return 0;
+        for (int i = slot + 1; i < slot + length; i++) {
+            if (buffer.get(i * SLOT + 4) != NUMBER || !isIntact(buffer, i)) return 0;
+        }
+        return length;
+    }
+
+    private static boolean isIntact(ByteBuffer buffer, int slot) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(slot * SLOT + 4, SLOT - 4));
+        return buffer.getInt(slot * SLOT) == (int) crc.getValue();
+    }
+
+    private static void seal(ByteBuffer slot) {
+        CRC32C crc = new CRC32C();
+        crc.update(slot.slice(4, SLOT - 4));
+        slot.putInt(0, (int) crc.getValue());
+    }
+
+    private void roll() {
+        segment.force();
+        try {
+            map(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // The mapping outlives the channel; a segment written with a larger segment-size is mapped whole
+    private void map(long segmentBase) throws IOException {
+        try (FileChannel channel = FileChannel.open(file(segmentBase),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = Math.max(channel.size() / SLOT, segmentSlots) * SLOT;
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        base = segmentBase;
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> bases.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        bases.sort(null);
+        return bases;
+    }
+
+    private Path file(long segmentBase) {
+        return dir.resolve(String.format("%020d%s", segmentBase, SUFFIX));
+    }
+}
@@ -0,0 +1,43 @@
+package antifraud;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+@Component
+@Endpoint(id = "journal")
+public class TransactionJournalEndpoint {
+
+    private final TransactionJournal transactionJournal;
+    private final CorrelationWindow correlationWindow;
+    private final VelocityFeatures velocityFeatures;
+    private final CardLimitService cardLimitService;
+
+    public TransactionJournalEndpoint(TransactionJournal transactionJournal, CorrelationWindow correlationWindow,
+                                      VelocityFeatures velocityFeatures, CardLimitService cardLimitService) {
+        this.transactionJournal = transactionJournal;
+        this.correlationWindow = correlationWindow;
+        this.velocityFeatures = velocityFeatures;
+        this.cardLimitService = cardLimitService;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return Map.of("enabled", transactionJournal.isEnabled(), "end", transactionJournal.end());
+    }
+
+    // Rebuilds the transaction table from the journal, then everything derived from it
+    @WriteOperation
+    public Map<String, Object> restore() throws IOException {
+        if (!transactionJournal.isEnabled()) return Map.of("restored", 0);
+        long restored = transactionJournal.restore();
+        correlationWindow.rebuild();
+        velocityFeatures.rebuild();
+        cardLimitService.rebuild();
+        return Map.of("restored", restored);
+    }
+}
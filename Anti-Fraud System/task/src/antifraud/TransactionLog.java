@@ -0,0 +1,173 @@
+package antifraud;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+
+// Append-only log of newline-terminated records. Positions are byte offsets across all segments, and each segment
+// file is named after the position of its first byte, so a position stays valid when older segments are deleted.
+// The caller serialises write(); sync() and release() may be called from any thread.
+public class TransactionLog implements Closeable {
+
+    private static final String SUFFIX = ".log";
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private FileChannel channel;
+    private long base;
+    private volatile long end;
+    private volatile long synced;
+
+    public TransactionLog(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        List<Long> bases = segments();
+        open(bases.isEmpty() ? 0 : bases.get(bases.size() - 1));
+        synced = end;
+    }
+
+    public long end() {
+        return end;
+    }
+
+    // Appends the records and returns the position just past them; they are durable once sync() reaches it
+    public long write(List<byte[]> records) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (byte[] record : records) {
+            bytes.writeBytes(record);
+            bytes.write('\n');
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        end += bytes.size();
+        long position = end;
+        if (end - base >= segmentBytes) roll();
+        return position;
+    }
+
+    // Group commit: whoever holds the lock forces everything written so far, and later callers it covered return
+    public void sync(long position) {
+        if (synced >= position) return;
+        syncLock.lock();
+        try {
+            if (synced >= position) return;
+            long target = end;
+            channel.force(false);
+            synced = target;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    // Calls back with each record after from and the position just past it. A torn last record (no newline)
+    // was never acknowledged, so it is cut off and later writes start where it began.
+    public void read(long from, BiConsumer<byte[], Long> consumer) throws IOException {
+        List<Long> bases = segments();
+        for (int i = 0; i < bases.size(); i++) {
+            long segmentBase = bases.get(i);
+            byte[] content = Files.readAllBytes(file(segmentBase));
+            if (segmentBase + content.length <= from) continue;
+            int start = (int) Math.max(0, from - segmentBase);
+            for (int j = start; j < content.length; j++) {
+                if (content[j] != '\n') continue;
+                byte[] record = new byte[j - start];
+                System.arraycopy(content, start, record, 0, record.length);
+                consumer.accept(record, segmentBase + j + 1);
+                start = j + 1;
+            }
+            if (start < content.length && segmentBase == base) {
+                channel.truncate(start);
+                end = base + start;
+                synced = Math.min(synced, end);
+            }
+        }
+    }
+
+    // Deletes the segments that lie wholly before persisted
+    public void release(long persisted) {
+        try {
+            List<Long> bases = segments();
+            for (int i = 0; i + 1 < bases.size() && bases.get(i + 1) <= persisted; i++) {
+                Files.deleteIfExists(file(bases.get(i)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // For a database that is ahead of this directory (it was emptied or replaced): continue past its checkpoint
+    public void skipTo(long persisted) throws IOException {
+        if (persisted <= end) return;
+        syncLock.lock();
+        try {
+            channel.close();
+            open(persisted);
+        } finally {
+            syncLock.unlock();
+        }
+        release(persisted);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    private void roll() {
+        syncLock.lock();
+        try {
+            channel.force(false);
+            synced = end;
+            channel.close();
+            open(end);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private void open(long segmentBase) throws IOException {
+        base = segmentBase;
+        channel = FileChannel.open(file(segmentBase),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        end = base + channel.size();
+        synced = Math.max(synced, end);
+    }
+
+    private List<Long> segments() throws IOException {
+        List<Long> bases = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SUFFIX))
+                    .forEach(name -> bases.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length()))));
+        }
+        bases.sort(null);
+        return bases;
+    }
+
+    private Path file(long segmentBase) {
+        return dir.resolve(String.format("%020d%s", segmentBase, SUFFIX));
+    }
+}
@@ -1,14 +1,20 @@
 package antifraud;
 
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
 import java.time.LocalDateTime;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
-public interface TransactionRepository extends CrudRepository<Transaction, Long> {
+import static org.hibernate.jpa.HibernateHints.HINT_FETCH_SIZE;
+
+public interface TransactionRepository extends CrudRepository<Transaction, Long>, CompactTransactionQueries {
 
     @Query("SELECT COUNT(DISTINCT t.region) FROM Transaction t WHERE t.region <> ?1 AND t.number = ?2 AND t.date BETWEEN ?3 AND ?4")
     long countDistinctRegions(String region, String number, LocalDateTime start, LocalDateTime end);
@@ -16,9 +22,31 @@ public interface TransactionRepository extends CrudRepository<Transaction, Long>
     @Query("SELECT COUNT(DISTINCT t.ip) FROM Transaction t WHERE t.ip <> ?1 AND t.date BETWEEN ?2 AND ?3")
     long countUniqueIp(String ip, LocalDateTime start, LocalDateTime end);
 
+    @Query("SELECT DISTINCT t.region FROM Transaction t WHERE t.region <> ?1 AND t.number = ?2 AND t.date BETWEEN ?3 AND ?4")
+    List<String> findDistinctRegions(String region, String number, LocalDateTime start, LocalDateTime end);
+
+    @Query("SELECT DISTINCT t.ip FROM Transaction t WHERE t.ip <> ?1 AND t.date BETWEEN ?2 AND ?3")
+    List<String> findDistinctIps(String ip, LocalDateTime start, LocalDateTime end);
+
     List<Transaction> findAllByOrderById();
+    List<Transaction> findByIdGreaterThanOrderById(long afterId, Pageable page);
+    List<Transaction> findByNumberAndIdGreaterThanOrderById(String number, long afterId, Pageable page);
     List<Transaction> findByNumber(String number);
+    List<Transaction> findByNumberOrderById(String number);
 
     List<Transaction> findByNumberOrderByDate(String number);
 
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT t FROM Transaction t ORDER BY t.id")
+    Stream<Transaction> streamAllByOrderById();
+
+    @QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+    @Query("SELECT t FROM Transaction t WHERE t.number = ?1 ORDER BY t.id")
+    Stream<Transaction> streamByNumberOrderById(String number);
+
+    List<Transaction> findByFeedbackIsNotNullOrderById();
+
+    @Query("SELECT MAX(t.date) FROM Transaction t")
+    LocalDateTime findLatestDate();
+
 }
@@ -0,0 +1,6 @@
+package antifraud;
+
+// Ordinals are the stored column codes; append new results at the end
+public enum TransactionResult {
+    ALLOWED, PROHIBITED, MANUAL_PROCESSING
+}
@@ -0,0 +1,20 @@
+package antifraud;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+@Converter
+public class TransactionResultConverter implements AttributeConverter<String, Short> {
+
+    private static final TransactionResult[] RESULTS = TransactionResult.values();
+
+    @Override
+    public Short convertToDatabaseColumn(String result) {
+        return result == null ? null : (short) TransactionResult.valueOf(result).ordinal();
+    }
+
+    @Override
+    public String convertToEntityAttribute(Short code) {
+        return code == null ? null : RESULTS[code].name();
+    }
+}
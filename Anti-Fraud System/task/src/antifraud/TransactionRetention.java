@@ -0,0 +1,275 @@
+package antifraud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+// Keeps the transaction table to the last antifraud.retention.days days (0 keeps everything), counted back from the
+// latest transaction date as the in-memory windows are, or from today if that is earlier, so a transaction dated
+// ahead cannot expire the current ones. The cutoff never reaches into what the windows reload after a restart, the
+// last antifraud.correlation.retention (at least an hour) for CorrelationWindow and the last day for
+// VelocityFeatures, so with 1 day it keeps yesterday as well. Older transactions move to the TransactionArchive,
+// except those with feedback, which the card limits are rebuilt from. An archived transaction is gone from history
+// and can no longer be given feedback: PUT /api/antifraud/transaction answers 404 for it, as for an unknown id.
+// Runs every antifraud.retention.interval and from the retention actuator endpoint.
+//
+// On PostgreSQL the table is partitioned by day (db/postgresql/V6). A transaction for a day without a partition lands
+// in transaction_default; each run gives the days from the cutoff on, and the day after the latest, partitions of
+// their own, so the date range queries scan only the days they ask for. An expired partition is detached, archived
+// and dropped instead of deleted from. H2 has no partitioning, so there expired transactions are deleted by date.
+@Component
+public class TransactionRetention {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionRetention.class);
+    private static final String COLUMNS = "id, amount, date, ip, number, region, result, feedback";
+    private static final String PARTITION = "transaction_p";
+    private static final DateTimeFormatter PARTITION_DAY = DateTimeFormatter.BASIC_ISO_DATE;
+    private static final int DELETE_BATCH = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final TransactionRepository transactionRepository;
+    private final TransactionArchive archive;
+    private final TransactionClock clock;
+    private final Counter archived;
+    private final int days;
+    private final Duration reload;
+    private final Duration interval;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private boolean partitioned;
+    private ScheduledExecutorService scheduler;
+
+    public TransactionRetention(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                                TransactionRepository transactionRepository, TransactionArchive archive,
+                                TransactionClock clock, MeterRegistry registry,
+                                @Value("${antifraud.retention.days:0}") int days,
+                                @Value("${antifraud.correlation.retention:2h}") Duration correlationRetention,
+                                @Value("${antifraud.retention.interval:1h}") Duration interval) {
+        if (days < 0) throw new IllegalArgumentException("antifraud.retention.days must not be negative");
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionRepository = transactionRepository;
+        this.archive = archive;
+        this.clock = clock;
+        this.archived = Counter.builder("antifraud.retention.archived").register(registry);
+        this.days = days;
+        Duration day = Duration.ofDays(1);
+        this.reload = correlationRetention.compareTo(day) > 0 ? correlationRetention : day;
+        this.interval = interval;
+    }
+
+    @PostConstruct
+    public void start() {
+        partitioned = "PostgreSQL".equals(jdbcTemplate.execute((Connection connection) ->
+                connection.getMetaData().getDatabaseProductName()))
+                && Boolean.TRUE.equals(jdbcTemplate.queryForObject(
+                "SELECT to_regclass('transaction_default') IS NOT NULL", Boolean.class));
+        if (!partitioned && days == 0) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "transaction-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (RuntimeException e) {
+                log.warn("Transaction retention failed, next run in {}", interval, e);
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (scheduler == null) return;
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public Map<String, Object> run() {
+        lock.lock();
+        try {
+            Map<String, Object> result = new LinkedHashMap<>();
+            LocalDateTime latest = transactionRepository.findLatestDate();
+            if (latest == null) return result;
+            LocalDateTime now = clock.now();
+            if (latest.isAfter(now)) latest = now;
+            LocalDate cutoff = days == 0 ? null : latest.toLocalDate().minusDays(days - 1);
+            if (cutoff != null && latest.minus(reload).toLocalDate().isBefore(cutoff)) {
+                cutoff = latest.minus(reload).toLocalDate();
+            }
+            if (partitioned) result.put("partitionsCreated", partition(cutoff, latest.toLocalDate()));
+            if (cutoff == null) return result;
+            long count = 0;
+            if (partitioned) {
+                int dropped = 0;
+                for (Map.Entry<LocalDate, Boolean> partition : partitions().entrySet()) {
+                    if (!partition.getKey().isBefore(cutoff)) break;
+                    count += dropPartition(partition.getKey(), partition.getValue());
+                    dropped++;
+                }
+                result.put("partitionsDropped", dropped);
+            }
+            for (LocalDate day : jdbcTemplate.queryForList("SELECT DISTINCT CAST(date AS DATE) FROM transaction "
+                    + "WHERE date < ? AND feedback IS NULL", LocalDate.class, cutoff.atStartOfDay())) {
+                count += deleteDay(day);
+            }
+            archived.increment(count);
+            if (count > 0) log.info("Archived {} transactions dated before {}", count, cutoff);
+            result.put("archived", count);
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isPartitioned() {
+        return partitioned;
+    }
+
+    // The days from the cutoff with transactions in the default partition, the latest day and the one after it
+    private int partition(LocalDate cutoff, LocalDate latest) {
+        Set<LocalDate> days = new TreeSet<>(cutoff == null
+                ? jdbcTemplate.queryForList("SELECT DISTINCT CAST(date AS DATE) FROM transaction_default",
+                LocalDate.class)
+                : jdbcTemplate.queryForList("SELECT DISTINCT CAST(date AS DATE) FROM transaction_default "
+                + "WHERE date >= ?", LocalDate.class, cutoff.atStartOfDay()));
+        days.add(latest);
+        days.add(latest.plusDays(1));
+        days.removeAll(partitions().keySet());
+        for (LocalDate day : days) {
+            String name = PARTITION + PARTITION_DAY.format(day);
+            Timestamp from = Timestamp.valueOf(day.atStartOfDay());
+            Timestamp to = Timestamp.valueOf(day.plusDays(1).atStartOfDay());
+            transactionTemplate.executeWithoutResult(status -> {
+                // Holds off inserts for the day until it is attached, so none are left behind in the default partition
+                jdbcTemplate.execute("LOCK TABLE transaction_default IN ACCESS EXCLUSIVE MODE");
+                jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE transaction INCLUDING DEFAULTS)");
+                jdbcTemplate.update("WITH moved AS (DELETE FROM transaction_default WHERE date >= ? AND date < ? "
+                        + "RETURNING " + COLUMNS + ") INSERT INTO " + name + " (" + COLUMNS + ") SELECT " + COLUMNS
+                        + " FROM moved", from, to);
+                jdbcTemplate.execute("ALTER TABLE transaction ATTACH PARTITION " + name
+                        + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            });
+        }
+        return days.size();
+    }
+
+    // Day partitions by day, to whether they are still attached; one left detached by a failed run is dropped next
+    private SortedMap<LocalDate, Boolean> partitions() {
+        SortedMap<LocalDate, Boolean> partitions = new TreeMap<>();
+        jdbcTemplate.query("SELECT relname, relispartition FROM pg_class WHERE relkind = 'r' AND relname LIKE ?",
+                row -> {
+                    String day = row.getString("relname").substring(PARTITION.length());
+                    if (day.length() == 8 && day.chars().allMatch(Character::isDigit)) {
+                        partitions.put(LocalDate.parse(day, PARTITION_DAY), row.getBoolean("relispartition"));
+                    }
+                }, PARTITION.replace("_", "\\_") + "%");
+        return partitions;
+    }
+
+    // Detached on its own so the lock on transaction is short; transactions with feedback go back into the default
+    // partition
+    private long dropPartition(LocalDate day, boolean attached) {
+        String name = PARTITION + PARTITION_DAY.format(day);
+        if (attached) {
+            transactionTemplate.executeWithoutResult(status ->
+                    jdbcTemplate.execute("ALTER TABLE transaction DETACH PARTITION " + name));
+        }
+        return archived(day, out -> {
+            long count = archive(out, "SELECT " + COLUMNS + " FROM " + name
+                    + " WHERE feedback IS NULL ORDER BY number, id", null);
+            jdbcTemplate.update("INSERT INTO transaction (" + COLUMNS + ") SELECT " + COLUMNS + " FROM " + name
+                    + " WHERE feedback IS NOT NULL");
+            jdbcTemplate.execute("DROP TABLE " + name);
+            return count;
+        });
+    }
+
+    // Deleted by key and only while still without feedback, so one given feedback meanwhile stays
+    private long deleteDay(LocalDate day) {
+        return archived(day, out -> {
+            List<Object[]> keys = new ArrayList<>();
+            long count = archive(out, "SELECT " + COLUMNS + " FROM transaction WHERE date >= ? AND date < ? "
+                    + "AND feedback IS NULL ORDER BY number, id", keys, day.atStartOfDay(),
+                    day.plusDays(1).atStartOfDay());
+            for (int from = 0; from < keys.size(); from += DELETE_BATCH) {
+                jdbcTemplate.batchUpdate("DELETE FROM transaction WHERE id = ? AND date = ? AND feedback IS NULL",
+                        keys.subList(from, Math.min(keys.size(), from + DELETE_BATCH)));
+            }
+            return count;
+        });
+    }
+
+    // Runs work, which archives the day's rows into out and takes them out of the table, in one database transaction.
+    // The archive file is only put in place once that commits, and deleted if it rolls back.
+    private long archived(LocalDate day, Function<TransactionArchive.Day, Long> work) {
+        TransactionArchive.Day out;
+        try {
+            out = archive.append(day);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long count;
+        try {
+            count = transactionTemplate.execute(status -> work.apply(out));
+        } catch (RuntimeException e) {
+            try {
+                out.discard();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        try {
+            out.publish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count;
+    }
+
+    // Completes the file before returning, so it is on disk before the transaction commits
+    private long archive(TransactionArchive.Day out, String query, List<Object[]> keys, Object... args) {
+        long[] count = {0};
+        try (out) {
+            jdbcTemplate.query(query, row -> {
+                CompactTransaction trans = CompactTransaction.of(row);
+                try {
+                    out.write(trans);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                if (keys != null) keys.add(new Object[]{trans.id(), row.getTimestamp("date")});
+                count[0]++;
+            }, args);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return count[0];
+    }
+}
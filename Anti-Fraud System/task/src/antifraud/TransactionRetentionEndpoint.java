@@ -0,0 +1,29 @@
+package antifraud;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+@Component
+@Endpoint(id = "retention")
+public class TransactionRetentionEndpoint {
+
+    private final TransactionRetention transactionRetention;
+
+    public TransactionRetentionEndpoint(TransactionRetention transactionRetention) {
+        this.transactionRetention = transactionRetention;
+    }
+
+    @ReadOperation
+    public Map<String, Object> status() {
+        return Map.of("partitioned", transactionRetention.isPartitioned());
+    }
+
+    @WriteOperation
+    public Map<String, Object> run() {
+        return transactionRetention.run();
+    }
+}
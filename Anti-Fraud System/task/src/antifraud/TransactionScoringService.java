@@ -0,0 +1,205 @@
+package antifraud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Service
+public class TransactionScoringService {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionScoringService.class);
+
+    private final TransactionWriter transactionWriter;
+    private final CardLimitService cardLimitService;
+    private final CardLocks cardLocks;
+    private final CorrelationWindow correlationWindow;
+    private final VelocityFeatures velocityFeatures;
+    private final TransactionValidator transactionValidator;
+    private final RiskEngine riskEngine;
+    private final Validator validator;
+    private final int lockCards;
+    private final StageTimers<Stage> stages;
+    private final StageTimers<BatchStage> batchStages;
+    private final Map<TransactionResult, Counter> results = new EnumMap<>(TransactionResult.class);
+    private final Map<FraudReason, Counter> reasons = new EnumMap<>(FraudReason.class);
+
+    // LOCK is the wait for the card's lock, WINDOW recording the transaction in the correlation window and velocities
+    private enum Stage { VALIDATE, LOCK, LIMITS, SCORE, WRITE, WINDOW }
+
+    // SCORE validates, scores and records every item of the batch
+    private enum BatchStage { LOCK, LIMITS, SCORE, WRITE }
+
+    public TransactionScoringService(TransactionWriter transactionWriter, CardLimitService cardLimitService,
+                                     CardLocks cardLocks, CorrelationWindow correlationWindow,
+                                     VelocityFeatures velocityFeatures,
+                                     TransactionValidator transactionValidator, RiskEngine riskEngine,
+                                     Validator validator, MeterRegistry registry,
+                                     @Value("${antifraud.batch.lock-cards:64}") int lockCards) {
+        if (lockCards < 1) throw new IllegalArgumentException("antifraud.batch.lock-cards must be at least 1");
+        this.transactionWriter = transactionWriter;
+        this.cardLimitService = cardLimitService;
+        this.cardLocks = cardLocks;
+        this.correlationWindow = correlationWindow;
+        this.velocityFeatures = velocityFeatures;
+        this.transactionValidator = transactionValidator;
+        this.riskEngine = riskEngine;
+        this.validator = validator;
+        this.lockCards = lockCards;
+        this.stages = new StageTimers<>(registry, "antifraud.transaction.stage", Stage.class);
+        this.batchStages = new StageTimers<>(registry, "antifraud.batch.stage", BatchStage.class);
+        for (TransactionResult result : TransactionResult.values()) {
+            results.put(result, Counter.builder("antifraud.transaction.results")
+                    .tag("result", result.name().toLowerCase(Locale.ROOT).replace('_', '-')).register(registry));
+        }
+        for (FraudReason reason : FraudReason.values()) {
+            reasons.put(reason, Counter.builder("antifraud.transaction.reasons")
+                    .tag("reason", reason.getCode()).register(registry));
+        }
+    }
+
+    public record Scored(Transaction transaction, CompactTransaction compact, TransactionResponse response) {}
+
+    public TransactionResponse process(TransactionRequest request) {
+        long started = System.nanoTime();
+        TransactionValidator.Validated validated = transactionValidator.validate(request);
+        long validatedAt = stages.record(Stage.VALIDATE, started);
+        return cardLocks.withCard(request.getNumber(), () -> {
+            long at = stages.record(Stage.LOCK, validatedAt);
+            CardLimit limit = cardLimitService.getLimit(request.getNumber());
+            at = stages.record(Stage.LIMITS, at);
+            Scored scored = score(validated, limit);
+            at = stages.record(Stage.SCORE, at);
+            transactionWriter.write(scored.transaction());
+            at = stages.record(Stage.WRITE, at);
+            correlationWindow.record(scored.compact());
+            velocityFeatures.record(scored.compact());
+            stages.record(Stage.WINDOW, at);
+            return scored.response();
+        });
+    }
+
+    // Scores the items in order exactly as if they were posted one by one. The batch goes in runs of consecutive
+    // items with at most antifraud.batch.lock-cards cards, each holding only its cards' stripes while it is scored
+    // and written in one batch, so a post for another card waits on at most one run instead of the whole batch.
+    // In exchange a batch is no longer one unit: posts for its cards can land between two runs, as between two
+    // requests, and if a run cannot be written, it and everything after it is answered 503 while the runs before
+    // it stay stored.
+    public List<BatchTransactionResponse> processBatch(List<TransactionRequest> requests) {
+        List<BatchTransactionResponse> responses = new ArrayList<>(requests.size());
+        int from = 0;
+        while (from < requests.size()) {
+            Set<String> numbers = new HashSet<>();
+            int to = from;
+            for (; to < requests.size(); to++) {
+                TransactionRequest request = requests.get(to);
+                String number = request == null ? null : request.getNumber();
+                if (number == null) continue;
+                if (numbers.size() == lockCards && !numbers.contains(number)) break;
+                numbers.add(number);
+            }
+            List<TransactionRequest> run = requests.subList(from, to);
+            long started = System.nanoTime();
+            List<BatchTransactionResponse> scored = cardLocks.withCards(numbers,
+                    () -> scoreBatch(run, numbers, batchStages.record(BatchStage.LOCK, started)));
+            if (scored == null) break;
+            responses.addAll(scored);
+            from = to;
+        }
+        while (responses.size() < requests.size()) {
+            responses.add(BatchTransactionResponse.rejected(HttpStatus.SERVICE_UNAVAILABLE.value(),
+                    "Could not store the transaction"));
+        }
+        return responses;
+    }
+
+    // Null when the run could not be written
+    private List<BatchTransactionResponse> scoreBatch(List<TransactionRequest> requests, Set<String> numbers,
+                                                      long lockedAt) {
+        Map<String, CardLimit> limits = cardLimitService.getLimits(numbers);
+        long at = batchStages.record(BatchStage.LIMITS, lockedAt);
+
+        List<Transaction> accepted = new ArrayList<>();
+        List<BatchTransactionResponse> responses = new ArrayList<>(requests.size());
+        // The earlier items are not in the database yet when a later one's correlation check has to ask it
+        List<CompactTransaction> unwritten = new ArrayList<>();
+        correlationWindow.startRun(unwritten);
+        try {
+            for (TransactionRequest request : requests) {
+                TransactionValidator.Validated validated;
+                try {
+                    validateBean(request);
+                    validated = transactionValidator.validate(request);
+                } catch (ResponseStatusException e) {
+                    responses.add(BatchTransactionResponse.rejected(e.getStatusCode().value(), e.getReason()));
+                    continue;
+                }
+                Scored scored = score(validated, limits.get(request.getNumber()));
+                correlationWindow.record(scored.compact());
+                velocityFeatures.record(scored.compact());
+                unwritten.add(scored.compact());
+                accepted.add(scored.transaction());
+                responses.add(BatchTransactionResponse.scored(scored.response()));
+            }
+        } finally {
+            correlationWindow.endRun();
+        }
+        at = batchStages.record(BatchStage.SCORE, at);
+
+        try {
+            transactionWriter.writeAll(accepted);
+            batchStages.record(BatchStage.WRITE, at);
+        } catch (RuntimeException e) {
+            log.warn("Could not store a batch run of {} transactions", accepted.size(), e);
+            // The window already saw the run; forget it again, once everything written before it is in the database
+            if (!transactionWriter.awaitWritten()) {
+                log.warn("Rebuilding the windows before the write-behind queue has drained");
+            }
+            correlationWindow.rebuild();
+            velocityFeatures.rebuild();
+            return null;
+        }
+        return responses;
+    }
+
+    public Scored score(TransactionValidator.Validated validated, CardLimit limit) {
+        TransactionRequest request = validated.request();
+        RiskEngine.Assessment assessment = riskEngine.evaluate(validated, limit);
+        String status = assessment.result().name();
+        results.get(assessment.result()).increment();
+        for (FraudReason reason : assessment.reasons()) reasons.get(reason).increment();
+
+        Transaction transaction = new Transaction();
+        transaction.setAmount(request.getAmount());
+        transaction.setIp(request.getIp());
+        transaction.setNumber(request.getNumber());
+        transaction.setRegion(request.getRegion());
+        transaction.setDate(request.getDate());
+        transaction.setResult(status);
+
+        TransactionResponse response = new TransactionResponse();
+        response.setInfo(assessment.info());
+        response.setResult(status);
+        return new Scored(transaction, CompactTransaction.of(validated, assessment.result()), response);
+    }
+
+    private void validateBean(TransactionRequest request) {
+        if (request == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Missing transaction");
+        Set<ConstraintViolation<TransactionRequest>> violations = validator.validate(request);
+        if (violations.isEmpty()) return;
+        String message = violations.stream()
+                .map(v -> v.getPropertyPath() + " " + v.getMessage())
+                .sorted()
+                .collect(Collectors.joining(", "));
+        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, message);
+    }
+}
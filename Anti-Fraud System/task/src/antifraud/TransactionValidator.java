@@ -0,0 +1,39 @@
+package antifraud;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.LocalDateTime;
+
+// Single-pass checks with the same answers as the commons-validator and DateTimeFormatter ones they replace
+@Component
+public class TransactionValidator {
+
+    // A request that passed validation, with the forms later stages look things up by
+    public record Validated(TransactionRequest request, int ip, long packedNumber, Region region) {}
+
+    public Validated validate(TransactionRequest request) {
+        long ip = request.getIp() == null ? Ipv4.INVALID : Ipv4.parse(request.getIp());
+        if (ip == Ipv4.INVALID) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Wrong ip format");
+
+        if (!CardNumbers.isValidLuhn(request.getNumber())) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Wrong card number format");
+
+        Region region = Region.fromCode(request.getRegion());
+        if (region == null) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Invalid region format");
+
+        if (request.getDate() == null || isDateRejected(request.getDate())) throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                "Invalid date format");
+
+        return new Validated(request, (int) ip, CardNumbers.pack(request.getNumber()), region);
+    }
+
+    // Dates used to be rejected when date.toString() parsed as yyyy-MM-dd'T'HH:mm:ss. toString() omits zero
+    // seconds and prints any fraction, and year-of-era cannot be below 1, so that comes down to these fields.
+    public boolean isDateRejected(LocalDateTime date) {
+        return date.getNano() == 0 && date.getSecond() != 0 && date.getYear() >= 1;
+    }
+}
@@ -0,0 +1,429 @@
+package antifraud;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.http.HttpStatus;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Stores scored transactions. Synchronously by default; with antifraud.write-behind.enabled the caller only waits
+// for the record to be durable in a local TransactionLog, and a background thread inserts batches. Each batch moves
+// the checkpoint in write_behind_checkpoint in the same database transaction, so after a crash exactly the records
+// past the checkpoint are replayed. Until its batch lands, a transaction is missing from history and feedback.
+//
+// At most antifraud.write-behind.queue-capacity transactions wait for the database; past that a post waits up to
+// antifraud.write-behind.offer-timeout for room and is then refused with 503. A batch the database refuses is
+// retried antifraud.write-behind.max-attempts times, then each of its transactions is tried on its own in a
+// transaction that is rolled back, and those that still fail go to dead-letter.ndjson in the log directory, in the
+// log's record format, before the rest is inserted and the checkpoint moves past the batch. Only the database being
+// unreachable is retried for as long as it takes, as the records are safe in the log meanwhile.
+@Component
+public class TransactionWriter {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionWriter.class);
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+    private static final String DEAD_LETTER = "dead-letter.ndjson";
+
+    private record Entry(long amount, String ip, String number, String region, LocalDateTime date, String result) {}
+
+    private record Pending(Transaction transaction, long position, long appendedAt) {}
+
+    private final TransactionRepository transactionRepository;
+    private final CorrelationWindow correlationWindow;
+    private final VelocityFeatures velocityFeatures;
+    private final TransactionJournal transactionJournal;
+    private final JdbcTemplate jdbcTemplate;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectWriter entryWriter;
+    private final ObjectReader entryReader;
+    private final boolean enabled;
+    private final Path dir;
+    private final long segmentBytes;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final int capacity;
+    private final Duration offerTimeout;
+    private final Duration awaitTimeout;
+    private final Counter deadLettered;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // Bounded by capacity through reserve()
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final ReentrantLock progressLock = new ReentrantLock();
+    private final Condition progressed = progressLock.newCondition();
+    // Transactions given room in the queue and not yet written, guarded by progressLock
+    private int reserved;
+    // Running totals of transactions queued and written, for awaitWritten()
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile Pending inFlight;
+    private volatile boolean running;
+    private volatile boolean stopping;
+    private TransactionLog transactionLog;
+    private Thread thread;
+
+    public TransactionWriter(TransactionRepository transactionRepository, CorrelationWindow correlationWindow,
+                             VelocityFeatures velocityFeatures, TransactionJournal transactionJournal, JdbcTemplate jdbcTemplate, EntityManager entityManager,
+                             PlatformTransactionManager transactionManager, ObjectMapper objectMapper, MeterRegistry registry,
+                             @Value("${antifraud.write-behind.enabled:false}") boolean enabled,
+                             @Value("${antifraud.write-behind.dir:../write-behind}") String dir,
+                             @Value("${antifraud.write-behind.segment-size:64MB}") DataSize segmentSize,
+                             @Value("${antifraud.write-behind.batch-size:500}") int batchSize,
+                             @Value("${antifraud.write-behind.max-attempts:5}") int maxAttempts,
+                             @Value("${antifraud.write-behind.queue-capacity:100000}") int capacity,
+                             @Value("${antifraud.write-behind.offer-timeout:10s}") Duration offerTimeout,
+                             @Value("${antifraud.write-behind.await-timeout:10s}") Duration awaitTimeout) {
+        this.transactionRepository = transactionRepository;
+        this.correlationWindow = correlationWindow;
+        this.velocityFeatures = velocityFeatures;
+        this.transactionJournal = transactionJournal;
+        this.jdbcTemplate = jdbcTemplate;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.entryWriter = objectMapper.writerFor(Entry.class).without(SerializationFeature.INDENT_OUTPUT);
+        this.entryReader = objectMapper.readerFor(Entry.class);
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.segmentBytes = segmentSize.toBytes();
+        this.batchSize = batchSize;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.capacity = capacity;
+        this.offerTimeout = offerTimeout;
+        this.awaitTimeout = awaitTimeout;
+        this.deadLettered = Counter.builder("antifraud.write-behind.dead-lettered").register(registry);
+
+        Gauge.builder("antifraud.write-behind.queue", this, writer -> writer.queued.get() - writer.written.get())
+                .register(registry);
+        Gauge.builder("antifraud.write-behind.lag", this, TransactionWriter::lagSeconds)
+                .baseUnit("seconds").register(registry);
+    }
+
+    // Replays whatever an earlier run logged but did not insert, whether or not write-behind is still enabled
+    @PostConstruct
+    public void start() throws IOException {
+        if (!enabled && !dir.toFile().isDirectory()) return;
+        transactionLog = new TransactionLog(dir, segmentBytes);
+        long checkpoint = checkpoint();
+        transactionLog.skipTo(checkpoint);
+
+        List<Transaction> replayed = new ArrayList<>();
+        long[] position = {checkpoint};
+        transactionLog.read(checkpoint, (record, next) -> {
+            replayed.add(decode(record));
+            position[0] = next;
+            if (replayed.size() == batchSize) {
+                persistWithRetry(replayed, position[0], false);
+                replayed.clear();
+            }
+        });
+        if (!replayed.isEmpty()) persistWithRetry(replayed, position[0], false);
+        transactionLog.release(position[0]);
+        if (position[0] > checkpoint) {
+            log.info("Replayed write-behind log from position {} to {}", checkpoint, position[0]);
+            correlationWindow.rebuild();
+            velocityFeatures.rebuild();
+        }
+
+        if (!enabled) {
+            transactionLog.close();
+            transactionLog = null;
+            return;
+        }
+        running = true;
+        thread = new Thread(this::drain, "transaction-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Inserts everything still queued before the database goes away
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        stopping = true;
+        if (thread != null) {
+            running = false;
+            thread.join();
+            // Whatever is still queued is replayed at the next start; nobody waits for it now
+            progressed(0);
+        }
+        if (transactionLog != null) transactionLog.close();
+    }
+
+    public void write(Transaction trans) {
+        if (!enabled) {
+            transactionRepository.save(trans);
+            transactionJournal.append(trans);
+            return;
+        }
+        writeAll(List.of(trans));
+    }
+
+    // Returns once the transactions are durable, in the database or in the log
+    public void writeAll(List<Transaction> transactions) {
+        if (!enabled) {
+            transactionRepository.saveAll(transactions);
+            transactionJournal.appendAll(transactions);
+            return;
+        }
+        if (transactions.isEmpty()) return;
+
+        List<byte[]> records = new ArrayList<>(transactions.size());
+        for (Transaction trans : transactions) records.add(encode(trans));
+
+        reserve(transactions.size());
+        long position;
+        appendLock.lock();
+        try {
+            position = transactionLog.write(records);
+            long appendedAt = System.nanoTime();
+            // Everything in this append shares its end position; the writer only checkpoints whole appends
+            for (int i = 0; i < transactions.size(); i++) {
+                long at = i == transactions.size() - 1 ? position : -1;
+                queue.add(new Pending(transactions.get(i), at, appendedAt));
+            }
+            queued.addAndGet(transactions.size());
+        } catch (RuntimeException e) {
+            progressed(transactions.size());
+            throw e;
+        } finally {
+            appendLock.unlock();
+        }
+        transactionLog.sync(position);
+    }
+
+    // Blocks until every transaction accepted before the call is in the database, or antifraud.write-behind
+    // .await-timeout has passed; false in that case
+    public boolean awaitWritten() {
+        long target = queued.get();
+        long nanos = awaitTimeout.toNanos();
+        progressLock.lock();
+        try {
+            while (running && written.get() < target) {
+                if (nanos <= 0) return false;
+                nanos = progressed.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            progressLock.unlock();
+        }
+    }
+
+    // Waits for room in the queue; an append larger than the whole queue gets in once the queue is empty
+    private void reserve(int count) {
+        long nanos = offerTimeout.toNanos();
+        progressLock.lock();
+        try {
+            while (reserved > 0 && reserved + count > capacity) {
+                if (nanos <= 0) throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                        "Write-behind queue is full");
+                nanos = progressed.awaitNanos(nanos);
+            }
+            reserved += count;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted waiting for the queue");
+        } finally {
+            progressLock.unlock();
+        }
+    }
+
+    // Gives back the room of transactions written, set aside or never queued
+    private void progressed(int count) {
+        progressLock.lock();
+        try {
+            reserved -= count;
+            progressed.signalAll();
+        } finally {
+            progressLock.unlock();
+        }
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                // Never split an append, or the checkpoint would pass records that are not inserted yet
+                while (batch.get(batch.size() - 1).position() < 0) batch.add(queue.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            inFlight = batch.get(0);
+            long position = batch.get(batch.size() - 1).position();
+            List<Transaction> transactions = new ArrayList<>(batch.size());
+            for (Pending entry : batch) transactions.add(entry.transaction());
+            if (!persistWithRetry(transactions, position, true)) return;
+            inFlight = null;
+            written.addAndGet(batch.size());
+            progressed(batch.size());
+            transactionLog.release(position);
+            batch.clear();
+        }
+    }
+
+    // False when given up at shutdown; what is left over is replayed from the log next time. Replaying at startup
+    // does not wait out an unreachable database but fails the startup instead.
+    private boolean persistWithRetry(List<Transaction> transactions, long position, boolean waitForDatabase) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                persist(transactions, position);
+                return true;
+            } catch (RuntimeException e) {
+                for (Transaction trans : transactions) trans.setId(0);
+                if (stopping) return false;
+                if (attempt >= maxAttempts) {
+                    if (!isUnavailable(e)) {
+                        transactions = setAside(transactions, e);
+                        attempt = 0;
+                        continue;
+                    }
+                    if (!waitForDatabase) throw e;
+                }
+                log.warn("Write-behind batch of {} failed (attempt {}), retrying", transactions.size(), attempt, e);
+                try {
+                    Thread.sleep(RETRY_DELAY.toMillis());
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    // Tries each transaction of a batch that keeps failing on its own and rolls it back, writes those that fail to
+    // the dead-letter file and returns the rest. If each passes alone, the batch as a whole is set aside.
+    private List<Transaction> setAside(List<Transaction> transactions, RuntimeException cause) {
+        List<Transaction> passed = new ArrayList<>(transactions.size());
+        List<Transaction> failed = new ArrayList<>();
+        for (Transaction trans : transactions) {
+            try {
+                transactionTemplate.executeWithoutResult(status -> {
+                    transactionRepository.save(trans);
+                    entityManager.flush();
+                    status.setRollbackOnly();
+                });
+                passed.add(trans);
+            } catch (RuntimeException e) {
+                failed.add(trans);
+            }
+            trans.setId(0);
+        }
+        if (failed.isEmpty()) {
+            failed = transactions;
+            passed = List.of();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (Transaction trans : failed) {
+            bytes.writeBytes(encode(trans));
+            bytes.write('\n');
+        }
+        try (FileChannel channel = FileChannel.open(dir.resolve(DEAD_LETTER), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        deadLettered.increment(failed.size());
+        log.error("Set aside {} of a write-behind batch of {} in {}", failed.size(), transactions.size(),
+                dir.resolve(DEAD_LETTER), cause);
+        return passed;
+    }
+
+    // The database being away is waited out; anything else is taken to be the batch
+    private static boolean isUnavailable(RuntimeException e) {
+        return e instanceof TransientDataAccessException || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException || e instanceof CannotCreateTransactionException;
+    }
+
+    private void persist(List<Transaction> transactions, long position) {
+        transactionTemplate.executeWithoutResult(status -> {
+            transactionRepository.saveAll(transactions);
+            jdbcTemplate.update("UPDATE write_behind_checkpoint SET log_position = ? WHERE id = 1", position);
+        });
+        transactionJournal.appendAll(transactions);
+    }
+
+    private long checkpoint() {
+        Long position = jdbcTemplate.queryForObject("SELECT log_position FROM write_behind_checkpoint WHERE id = 1",
+                Long.class);
+        return position == null ? 0 : position;
+    }
+
+    private double lagSeconds() {
+        Pending oldest = inFlight;
+        if (oldest == null) oldest = queue.peek();
+        return oldest == null ? 0 : (System.nanoTime() - oldest.appendedAt()) / 1e9;
+    }
+
+    private byte[] encode(Transaction trans) {
+        try {
+            return entryWriter.writeValueAsBytes(new Entry(trans.getAmount(), trans.getIp(), trans.getNumber(),
+                    trans.getRegion(), trans.getDate(), trans.getResult()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Transaction decode(byte[] record) {
+        try {
+            Entry entry = entryReader.readValue(record);
+            Transaction trans = new Transaction();
+            trans.setAmount(entry.amount());
+            trans.setIp(entry.ip());
+            trans.setNumber(entry.number());
+            trans.setRegion(entry.region());
+            trans.setDate(entry.date());
+            trans.setResult(entry.result());
+            return trans;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
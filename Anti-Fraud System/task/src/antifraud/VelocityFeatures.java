@@ -0,0 +1,249 @@
+package antifraud;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Transaction counts and amount sums per card and per IP over the last minute, ten minutes, hour and day, for the
+// scoring rules. Each key owns a block of time buckets in flat primitive arrays, a ring per window (1m: 6 x 10s,
+// 10m: 10 x 1m, 1h: 12 x 5m, 24h: 24 x 1h), so recording is O(1) and reading a window sums at most 24 adjacent
+// buckets; about 670 bytes a key. A window is the buckets up to and including the transaction's, so it reaches back
+// between its length less one bucket and its length. Time is the transaction date, as in CorrelationWindow, and a
+// key with nothing in the last day is freed at the next hourly sweep. A transaction dated past the TransactionClock
+// horizon is left out, as counting it would sweep every key and stop the sweeps until the dates caught up with it.
+@Component
+public class VelocityFeatures {
+
+    public enum Window {
+        MINUTE(60, 6),
+        TEN_MINUTES(600, 10),
+        HOUR(3_600, 12),
+        DAY(86_400, 24);
+
+        private final long bucketSeconds;
+        private final int buckets;
+
+        Window(long seconds, int buckets) {
+            this.bucketSeconds = seconds / buckets;
+            this.buckets = buckets;
+        }
+    }
+
+    private static final Window[] WINDOWS = Window.values();
+    private static final int[] OFFSETS = new int[WINDOWS.length];
+    private static final int BLOCK;
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final long SWEEP_SECONDS = 3_600;
+
+    static {
+        int offset = 0;
+        for (Window window : WINDOWS) {
+            OFFSETS[window.ordinal()] = offset;
+            offset += window.buckets;
+        }
+        BLOCK = offset;
+    }
+
+    private final TransactionRepository transactionRepository;
+    private final TransactionClock clock;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Table cards = new Table();
+    private final Table ips = new Table();
+    // Card numbers that do not pack into a long
+    private final Map<String, Integer> unpackedCards = new HashMap<>();
+    private long sweptAt = EMPTY;
+    private boolean ready;
+
+    public VelocityFeatures(TransactionRepository transactionRepository, TransactionClock clock) {
+        this.transactionRepository = transactionRepository;
+        this.clock = clock;
+    }
+
+    // Holds the lock across the reload so no record() in between is lost
+    @PostConstruct
+    public void rebuild() {
+        lock.lock();
+        try {
+            cards.clear();
+            ips.clear();
+            unpackedCards.clear();
+            sweptAt = EMPTY;
+            LocalDateTime latest = transactionRepository.findLatestDate();
+            if (latest != null) {
+                LocalDateTime horizon = clock.horizon();
+                if (latest.isAfter(horizon)) latest = horizon;
+                long until = horizon.toEpochSecond(ZoneOffset.UTC);
+                for (CompactTransaction trans : transactionRepository.findCompactByDateFrom(latest.minusDays(1))) {
+                    add(trans, until);
+                }
+            }
+            ready = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void record(CompactTransaction trans) {
+        lock.lock();
+        try {
+            if (ready) add(trans, clock.horizon().toEpochSecond(ZoneOffset.UTC));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Fills counts and amounts, indexed by Window ordinal, with the card's transactions in each window up to date
+    public void readCard(long packedNumber, String number, LocalDateTime date, long[] counts, long[] amounts) {
+        lock.lock();
+        try {
+            int slot = packedNumber == CardNumbers.UNPACKABLE
+                    ? unpackedCards.getOrDefault(number, -1) : cards.slots.get(packedNumber, -1);
+            cards.read(slot, date.toEpochSecond(ZoneOffset.UTC), counts, amounts);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The same for the IP's transactions
+    public void readIp(int ip, LocalDateTime date, long[] counts, long[] amounts) {
+        lock.lock();
+        try {
+            ips.read(ips.slots.get(ip, -1), date.toEpochSecond(ZoneOffset.UTC), counts, amounts);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void add(CompactTransaction trans, long until) {
+        if (trans.second() > until) return;
+        if (sweptAt == EMPTY || trans.second() - sweptAt >= SWEEP_SECONDS) {
+            sweptAt = trans.second();
+            cards.sweep(sweptAt, unpackedCards);
+            ips.sweep(sweptAt, unpackedCards);
+        }
+        int card;
+        if (trans.unpackedNumber() == null) {
+            card = cards.slot(trans.number());
+        } else {
+            card = unpackedCards.computeIfAbsent(trans.unpackedNumber(), number -> cards.allocate(0, number));
+        }
+        cards.add(card, trans.second(), trans.amount());
+        ips.add(ips.slot(trans.ip()), trans.second(), trans.amount());
+    }
+
+    // Keys to slots, and per slot its key, the head (latest) bucket number of each window and BLOCK buckets
+    private static final class Table {
+
+        final LongIntHashMap slots = new LongIntHashMap(1024);
+        long[] keys = new long[1024];
+        String[] texts = new String[1024];
+        long[] heads = new long[1024 * WINDOWS.length];
+        int[] counts = new int[1024 * BLOCK];
+        long[] sums = new long[1024 * BLOCK];
+        int used;
+        int[] free = new int[64];
+        int freeCount;
+
+        int slot(long key) {
+            int slot = slots.get(key, -1);
+            if (slot < 0) {
+                slot = allocate(key, null);
+                slots.put(key, slot);
+            }
+            return slot;
+        }
+
+        int allocate(long key, String text) {
+            int slot = freeCount > 0 ? free[--freeCount] : used++;
+            if (slot == keys.length) {
+                int capacity = keys.length * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                texts = Arrays.copyOf(texts, capacity);
+                heads = Arrays.copyOf(heads, capacity * WINDOWS.length);
+                counts = Arrays.copyOf(counts, capacity * BLOCK);
+                sums = Arrays.copyOf(sums, capacity * BLOCK);
+            }
+            keys[slot] = key;
+            texts[slot] = text;
+            Arrays.fill(heads, slot * WINDOWS.length, (slot + 1) * WINDOWS.length, EMPTY);
+            return slot;
+        }
+
+        void add(int slot, long second, long amount) {
+            for (Window window : WINDOWS) {
+                int head = slot * WINDOWS.length + window.ordinal();
+                int base = slot * BLOCK + OFFSETS[window.ordinal()];
+                long bucket = Math.floorDiv(second, window.bucketSeconds);
+                long latest = heads[head];
+                if (latest == EMPTY || bucket - latest >= window.buckets) {
+                    Arrays.fill(counts, base, base + window.buckets, 0);
+                    Arrays.fill(sums, base, base + window.buckets, 0);
+                    heads[head] = bucket;
+                } else if (bucket > latest) {
+                    // Empty the buckets the ring moves over; they held the oldest part of the window
+                    for (long b = latest + 1; b <= bucket; b++) {
+                        int i = base + (int) Math.floorMod(b, (long) window.buckets);
+                        counts[i] = 0;
+                        sums[i] = 0;
+                    }
+                    heads[head] = bucket;
+                } else if (latest - bucket >= window.buckets) {
+                    // Older than the ring reaches
+                    continue;
+                }
+                int i = base + (int) Math.floorMod(bucket, (long) window.buckets);
+                counts[i]++;
+                sums[i] += amount;
+            }
+        }
+
+        void read(int slot, long second, long[] counts, long[] amounts) {
+            Arrays.fill(counts, 0);
+            Arrays.fill(amounts, 0);
+            if (slot < 0) return;
+            for (Window window : WINDOWS) {
+                long latest = heads[slot * WINDOWS.length + window.ordinal()];
+                if (latest == EMPTY) continue;
+                int base = slot * BLOCK + OFFSETS[window.ordinal()];
+                long bucket = Math.floorDiv(second, window.bucketSeconds);
+                long from = Math.max(bucket, latest) - window.buckets + 1;
+                long count = 0, sum = 0;
+                for (long b = from; b <= Math.min(bucket, latest); b++) {
+                    int i = base + (int) Math.floorMod(b, (long) window.buckets);
+                    count += this.counts[i];
+                    sum += sums[i];
+                }
+                counts[window.ordinal()] = count;
+                amounts[window.ordinal()] = sum;
+            }
+        }
+
+        // Frees the keys whose day ring is entirely before the day ending at second
+        void sweep(long second, Map<String, Integer> unpacked) {
+            long oldest = Math.floorDiv(second, Window.DAY.bucketSeconds) - Window.DAY.buckets + 1;
+            for (int slot = 0; slot < used; slot++) {
+                int head = slot * WINDOWS.length + Window.DAY.ordinal();
+                if (heads[head] == EMPTY || heads[head] >= oldest) continue;
+                if (texts[slot] != null) unpacked.remove(texts[slot]);
+                else slots.remove(keys[slot]);
+                texts[slot] = null;
+                Arrays.fill(heads, slot * WINDOWS.length, (slot + 1) * WINDOWS.length, EMPTY);
+                if (freeCount == free.length) free = Arrays.copyOf(free, free.length * 2);
+                free[freeCount++] = slot;
+            }
+        }
+
+        void clear() {
+            slots.clear();
+            Arrays.fill(texts, null);
+            used = 0;
+            freeCount = 0;
+        }
+    }
+}
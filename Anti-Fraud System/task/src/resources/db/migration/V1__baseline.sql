@@ -0,0 +1,38 @@
+CREATE SEQUENCE app_user_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE stolen_card_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE sus_ip_address_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE transaction_seq START WITH 1 INCREMENT BY 50;
+
+CREATE TABLE app_user (
+    id BIGINT NOT NULL,
+    authority VARCHAR(255),
+    locked BOOLEAN,
+    name VARCHAR(255),
+    password VARCHAR(255),
+    username VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE stolen_card (
+    id BIGINT NOT NULL,
+    number VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE sus_ip_address (
+    id BIGINT NOT NULL,
+    ip VARCHAR(255),
+    PRIMARY KEY (id)
+);
+
+CREATE TABLE transaction (
+    id BIGINT NOT NULL,
+    amount BIGINT NOT NULL,
+    date TIMESTAMP(6),
+    feedback VARCHAR(255),
+    ip VARCHAR(255),
+    number VARCHAR(255),
+    region VARCHAR(255),
+    result VARCHAR(255),
+    PRIMARY KEY (id)
+);
@@ -0,0 +1,7 @@
+CREATE TABLE IF NOT EXISTS card_limit (
+    number VARCHAR(255) NOT NULL,
+    allowed BIGINT NOT NULL,
+    manual BIGINT NOT NULL,
+    version BIGINT NOT NULL,
+    PRIMARY KEY (number)
+);
@@ -0,0 +1,33 @@
+-- region, result and feedback become SMALLINT codes (see Region and TransactionResult)
+ALTER TABLE transaction ADD COLUMN region_code SMALLINT;
+ALTER TABLE transaction ADD COLUMN result_code SMALLINT;
+ALTER TABLE transaction ADD COLUMN feedback_code SMALLINT;
+
+UPDATE transaction SET
+    region_code = CASE region
+        WHEN 'EAP' THEN 0 WHEN 'ECA' THEN 1 WHEN 'HIC' THEN 2 WHEN 'LAC' THEN 3
+        WHEN 'MENA' THEN 4 WHEN 'SA' THEN 5 WHEN 'SSA' THEN 6 END,
+    result_code = CASE result
+        WHEN 'ALLOWED' THEN 0 WHEN 'PROHIBITED' THEN 1 WHEN 'MANUAL_PROCESSING' THEN 2 END,
+    feedback_code = CASE feedback
+        WHEN 'ALLOWED' THEN 0 WHEN 'PROHIBITED' THEN 1 WHEN 'MANUAL_PROCESSING' THEN 2 END;
+
+ALTER TABLE transaction DROP COLUMN region;
+ALTER TABLE transaction DROP COLUMN result;
+ALTER TABLE transaction DROP COLUMN feedback;
+ALTER TABLE transaction RENAME COLUMN region_code TO region;
+ALTER TABLE transaction RENAME COLUMN result_code TO result;
+ALTER TABLE transaction RENAME COLUMN feedback_code TO feedback;
+
+-- findByNumber and countDistinctRegions (number = ? AND date BETWEEN ? AND ?)
+CREATE INDEX transaction_number_date_idx ON transaction (number, date);
+-- countUniqueIp (date BETWEEN ? AND ? AND ip <> ?), MAX(date) and the window rebuild
+CREATE INDEX transaction_date_ip_idx ON transaction (date, ip);
+
+DELETE FROM sus_ip_address WHERE EXISTS (
+    SELECT 1 FROM sus_ip_address other WHERE other.ip = sus_ip_address.ip AND other.id < sus_ip_address.id);
+DELETE FROM stolen_card WHERE EXISTS (
+    SELECT 1 FROM stolen_card other WHERE other.number = stolen_card.number AND other.id < stolen_card.id);
+
+CREATE UNIQUE INDEX sus_ip_address_ip_idx ON sus_ip_address (ip);
+CREATE UNIQUE INDEX stolen_card_number_idx ON stolen_card (number);
@@ -0,0 +1,2 @@
+-- Keyset paging of a card's history (number = ? AND id > ? ORDER BY id)
+CREATE INDEX transaction_number_id_idx ON transaction (number, id);
@@ -0,0 +1,7 @@
+CREATE TABLE write_behind_checkpoint (
+    id INT NOT NULL,
+    log_position BIGINT NOT NULL,
+    PRIMARY KEY (id)
+);
+
+INSERT INTO write_behind_checkpoint VALUES (1, 0);
@@ -0,0 +1,8 @@
+-- The time last written on the primary, read back from a replica to measure its lag (see ReplicaMonitor)
+CREATE TABLE replica_heartbeat (
+    id INT NOT NULL,
+    beat BIGINT NOT NULL,
+    PRIMARY KEY (id)
+);
+
+INSERT INTO replica_heartbeat VALUES (1, 0);
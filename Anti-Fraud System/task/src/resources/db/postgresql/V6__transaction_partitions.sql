@@ -0,0 +1,29 @@
+-- PostgreSQL only: transaction becomes partitioned by day (see TransactionRetention). The primary key has to take in
+-- the partition key, and day partitions are created by the retention job, into which it moves the default's rows.
+ALTER TABLE transaction RENAME TO transaction_unpartitioned;
+ALTER TABLE transaction_unpartitioned DROP CONSTRAINT transaction_pkey;
+DROP INDEX transaction_number_date_idx;
+DROP INDEX transaction_date_ip_idx;
+DROP INDEX transaction_number_id_idx;
+
+CREATE TABLE transaction (
+    id BIGINT NOT NULL,
+    amount BIGINT NOT NULL,
+    date TIMESTAMP(6) NOT NULL,
+    ip VARCHAR(255),
+    number VARCHAR(255),
+    region SMALLINT,
+    result SMALLINT,
+    feedback SMALLINT,
+    PRIMARY KEY (id, date)
+) PARTITION BY RANGE (date);
+
+CREATE TABLE transaction_default PARTITION OF transaction DEFAULT;
+
+INSERT INTO transaction (id, amount, date, ip, number, region, result, feedback)
+SELECT id, amount, date, ip, number, region, result, feedback FROM transaction_unpartitioned;
+DROP TABLE transaction_unpartitioned;
+
+CREATE INDEX transaction_number_date_idx ON transaction (number, date);
+CREATE INDEX transaction_date_ip_idx ON transaction (date, ip);
+CREATE INDEX transaction_number_id_idx ON transaction (number, id);
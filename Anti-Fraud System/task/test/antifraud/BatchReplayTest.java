@@ -0,0 +1,128 @@
+package antifraud;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// The same transactions posted one by one and in batches, each on a fresh database, must be answered alike. The
+// dates follow a seeded random walk that now and then jumps hours back, below what the correlation window holds, or
+// lands a day past the clock, so some checks are answered by the database while earlier items of their batch run
+// are not written yet. Few cards, ips and regions keep the correlation counts around their thresholds.
+class BatchReplayTest {
+
+    private static final String[] CARDS = {"4000003305160034", "4000008449433403", "4000003305160018"};
+    private static final String[] REGIONS = {"EAP", "ECA", "HIC", "LAC"};
+    private static final int TRANSACTIONS = 600;
+    private static final int BATCH = 40;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private URI base;
+
+    @Test
+    void batchesScoreAsPostsOneByOne() throws Exception {
+        List<Map<String, Object>> transactions = transactions(new Random(20220122));
+
+        List<String> sequential = new ArrayList<>();
+        try (ConfigurableApplicationContext context = start("batch-replay-sequential", 64)) {
+            for (Map<String, Object> trans : transactions) {
+                HttpResponse<String> response = call("POST", "/api/antifraud/transaction", "merch",
+                        mapper.writeValueAsString(trans));
+                assertEquals(200, response.statusCode(), response.body());
+                sequential.add(verdict(mapper.readTree(response.body())));
+            }
+        }
+
+        List<String> batched = new ArrayList<>();
+        // Two cards a run, so a batch is also split into runs written one after the other
+        try (ConfigurableApplicationContext context = start("batch-replay-batched", 2)) {
+            for (int from = 0; from < transactions.size(); from += BATCH) {
+                List<Map<String, Object>> batch = transactions.subList(from, Math.min(from + BATCH,
+                        transactions.size()));
+                HttpResponse<String> response = call("POST", "/api/antifraud/transactions/batch", "merch",
+                        mapper.writeValueAsString(batch));
+                assertEquals(200, response.statusCode(), response.body());
+                for (JsonNode item : mapper.readTree(response.body())) {
+                    assertEquals(200, item.get("status").asInt(), item.toString());
+                    batched.add(verdict(item));
+                }
+            }
+        }
+
+        assertEquals(sequential, batched);
+        assertTrue(sequential.stream().anyMatch(verdict -> verdict.contains("region-correlation")));
+        assertTrue(sequential.stream().anyMatch(verdict -> verdict.contains("ip-correlation")));
+        assertTrue(sequential.stream().anyMatch(verdict -> verdict.startsWith("ALLOWED")));
+    }
+
+    private static List<Map<String, Object>> transactions(Random random) {
+        LocalDateTime date = LocalDateTime.of(2022, 1, 22, 16, 0);
+        LocalDateTime ahead = LocalDateTime.now().plusDays(1).truncatedTo(ChronoUnit.MINUTES);
+        List<Map<String, Object>> transactions = new ArrayList<>(TRANSACTIONS);
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            int jump = random.nextInt(100);
+            if (jump < 4) date = date.minusHours(3 + random.nextInt(4));
+            else if (jump < 8) date = date.minusMinutes(30 + random.nextInt(60));
+            else date = date.plusMinutes(random.nextInt(6));
+            LocalDateTime posted = random.nextInt(100) < 5 ? ahead.plusMinutes(random.nextInt(90)) : date;
+            transactions.add(Map.of(
+                    "amount", random.nextInt(100) < 80 ? 100 : 300,
+                    "ip", "192.168.1." + (1 + random.nextInt(4)),
+                    "number", CARDS[random.nextInt(CARDS.length)],
+                    "region", REGIONS[random.nextInt(REGIONS.length)],
+                    "date", posted.toString()));
+        }
+        return transactions;
+    }
+
+    private static String verdict(JsonNode response) {
+        return response.get("result").asText() + " " + response.get("info").asText();
+    }
+
+    private ConfigurableApplicationContext start(String database, int lockCards) throws Exception {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AntiFraudApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=jdbc:h2:mem:" + database,
+                "--antifraud.batch.lock-cards=" + lockCards,
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+        base = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+        assertEquals(201, call("POST", "/api/auth/user", null,
+                "{\"name\":\"A\",\"username\":\"admin\",\"password\":\"p\"}").statusCode());
+        assertEquals(201, call("POST", "/api/auth/user", null,
+                "{\"name\":\"M\",\"username\":\"merch\",\"password\":\"p\"}").statusCode());
+        assertEquals(200, call("PUT", "/api/auth/access", "admin",
+                "{\"username\":\"merch\",\"operation\":\"UNLOCK\"}").statusCode());
+        return context;
+    }
+
+    private HttpResponse<String> call(String method, String path, String user, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body));
+        if (body != null) request.header("Content-Type", "application/json");
+        if (user != null) {
+            request.header("Authorization", "Basic " + Base64.getEncoder()
+                    .encodeToString((user + ":p").getBytes(StandardCharsets.UTF_8)));
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
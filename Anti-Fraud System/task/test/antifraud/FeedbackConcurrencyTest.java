@@ -0,0 +1,144 @@
+package antifraud;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Feedback for many transactions of one card arrives at once, two conflicting verdicts for each. Exactly one of
+// them may win per transaction, and the card's stored limits must come out as the serial fold of the winners.
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:feedback-concurrency;DB_CLOSE_DELAY=-1",
+        "logging.level.root=WARN"})
+class FeedbackConcurrencyTest {
+
+    private static final String NUMBER = "4000003305160034";
+    private static final int TRANSACTIONS = 200;
+    private static final int THREADS = 16;
+    private static final LocalDateTime START = LocalDateTime.of(2022, 1, 22, 16, 0);
+
+    @Autowired
+    private TestRestTemplate rest;
+    @Autowired
+    private TransactionRepository transactionRepository;
+    @Autowired
+    private CardLimitRepository cardLimitRepository;
+    @Autowired
+    private CardLimitService cardLimitService;
+
+    @Test
+    void concurrentFeedbackOnOneCardMatchesSerialFold() throws Exception {
+        createUsers();
+        // One ip and region at the same small amount, so every transaction is ALLOWED and both verdicts lower the
+        // limits by the same step: the fold then does not depend on the order the winners were applied in
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            Map<String, Object> request = Map.of("amount", 100, "ip", "192.168.1.1", "number", NUMBER,
+                    "region", "EAP", "date", START.plusMinutes(i).toString());
+            var response = rest.withBasicAuth("merch", "p")
+                    .postForEntity("/api/antifraud/transaction", request, Map.class);
+            assertEquals(HttpStatus.OK, response.getStatusCode());
+            assertEquals("ALLOWED", response.getBody().get("result"));
+        }
+        List<Transaction> stored = transactionRepository.findAllByOrderById();
+        assertEquals(TRANSACTIONS, stored.size());
+
+        List<Callable<Feedback>> puts = new ArrayList<>();
+        for (Transaction trans : stored) {
+            for (String feedback : new String[]{"PROHIBITED", "MANUAL_PROCESSING"}) {
+                puts.add(() -> put(trans.getId(), feedback));
+            }
+        }
+        List<Feedback> results = runAtOnce(puts);
+
+        Map<Long, String> winners = new HashMap<>();
+        for (Feedback result : results) {
+            if (result.status().equals(HttpStatus.OK)) {
+                assertNull(winners.put(result.transactionId(), result.feedback()),
+                        "two verdicts accepted for transaction " + result.transactionId());
+            } else {
+                assertEquals(HttpStatus.CONFLICT, result.status());
+            }
+        }
+        assertEquals(TRANSACTIONS, winners.size());
+
+        long allowed = CardLimitService.DEFAULT_ALLOWED;
+        long manual = CardLimitService.DEFAULT_MANUAL;
+        for (Transaction trans : stored) {
+            String feedback = winners.get(trans.getId());
+            allowed = cardLimitService.calculateNewLimitForAllowed(allowed, 100, feedback, "ALLOWED");
+            manual = cardLimitService.calculateNewLimitForManual(manual, 100, feedback, "ALLOWED");
+        }
+        CardLimit limit = cardLimitRepository.findById(NUMBER).orElseThrow();
+        assertEquals(allowed, limit.getAllowed());
+        assertEquals(manual, limit.getManual());
+
+        CardLimit replayed = cardLimitService.replayAll().get(NUMBER);
+        assertEquals(replayed.getAllowed(), limit.getAllowed());
+        assertEquals(replayed.getManual(), limit.getManual());
+        assertTrue(cardLimitService.findInconsistencies().isEmpty());
+    }
+
+    private void createUsers() {
+        register("A", "admin");
+        register("M", "merch");
+        register("S", "supp");
+        var admin = rest.withBasicAuth("admin", "p");
+        admin.put("/api/auth/access", Map.of("username", "merch", "operation", "UNLOCK"));
+        admin.put("/api/auth/role", Map.of("username", "supp", "role", "SUPPORT"));
+        admin.put("/api/auth/access", Map.of("username", "supp", "operation", "UNLOCK"));
+    }
+
+    private void register(String name, String username) {
+        var response = rest.postForEntity("/api/auth/user",
+                Map.of("name", name, "username", username, "password", "p"), Map.class);
+        assertEquals(HttpStatus.CREATED, response.getStatusCode());
+    }
+
+    private Feedback put(long transactionId, String feedback) {
+        var response = rest.withBasicAuth("supp", "p").exchange("/api/antifraud/transaction", HttpMethod.PUT,
+                new HttpEntity<>(Map.of("transactionId", transactionId, "feedback", feedback)), String.class);
+        return new Feedback(transactionId, feedback, response.getStatusCode());
+    }
+
+    // Released together from behind a latch, so the calls for one transaction really do overlap
+    private static <T> List<T> runAtOnce(List<Callable<T>> calls) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<T>> futures = new ArrayList<>();
+            for (Callable<T> call : calls) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return call.call();
+                }));
+            }
+            start.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures) results.add(future.get());
+            return results;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private record Feedback(long transactionId, String feedback, HttpStatusCode status) {}
+}
@@ -0,0 +1,158 @@
+package antifraud;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// antifraud.replica.* against two in-memory H2 databases, both migrated by Flyway but not replicating, so each
+// holds a stolen card the other does not and a listing shows which one it was read from. The replica's heartbeat
+// row is set by hand and the monitor run on demand: a beat ahead of the clock reads as fresh, beat 1 as far behind.
+class ReplicaRoutingTest {
+
+    private static final String PRIMARY_URL = "jdbc:h2:mem:replica-routing-primary;DB_CLOSE_DELAY=-1";
+    private static final String REPLICA_URL = "jdbc:h2:mem:replica-routing-replica;DB_CLOSE_DELAY=-1";
+    private static final String PRIMARY_CARD = "4000003305160034";
+    private static final String REPLICA_CARD = "4000003305160018";
+    private static final String POSTED_CARD = "4000008449433403";
+
+    private static final HttpClient client = HttpClient.newHttpClient();
+    private static ConfigurableApplicationContext context;
+    private static URI base;
+    private static JdbcTemplate primary;
+    private static JdbcTemplate replica;
+    private static ReplicaMonitor monitor;
+    private static MeterRegistry registry;
+
+    @BeforeAll
+    static void start() throws Exception {
+        Flyway.configure().dataSource(REPLICA_URL, "", "").load().migrate();
+        replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL));
+        replica.update("INSERT INTO stolen_card (id, number) VALUES (1000, ?)", REPLICA_CARD);
+
+        context = new SpringApplicationBuilder(AntiFraudApplication.class).run(
+                "--server.port=0",
+                "--spring.datasource.url=" + PRIMARY_URL,
+                "--antifraud.replica.enabled=true",
+                "--antifraud.replica.url=" + REPLICA_URL,
+                // Only the scheduled check at startup; the tests run the others
+                "--antifraud.replica.check-interval=1h",
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+        base = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+        // Spring Boot's user for an embedded database given none
+        primary = new JdbcTemplate(new DriverManagerDataSource(PRIMARY_URL, "sa", ""));
+        monitor = context.getBean(ReplicaMonitor.class);
+        registry = context.getBean(MeterRegistry.class);
+
+        assertEquals(201, call("POST", "/api/auth/user", null,
+                "{\"name\":\"A\",\"username\":\"admin\",\"password\":\"p\"}").statusCode());
+        assertEquals(201, call("POST", "/api/auth/user", null,
+                "{\"name\":\"S\",\"username\":\"supp\",\"password\":\"p\"}").statusCode());
+        assertEquals(200, call("PUT", "/api/auth/role", "admin",
+                "{\"username\":\"supp\",\"role\":\"SUPPORT\"}").statusCode());
+        assertEquals(200, call("PUT", "/api/auth/access", "admin",
+                "{\"username\":\"supp\",\"operation\":\"UNLOCK\"}").statusCode());
+        assertEquals(200, call("POST", "/api/antifraud/stolencard", "supp",
+                "{\"number\":\"" + PRIMARY_CARD + "\"}").statusCode());
+    }
+
+    @AfterAll
+    static void stop() {
+        if (context != null) context.close();
+    }
+
+    @Test
+    void freshReplicaServesListings() throws Exception {
+        beat(System.currentTimeMillis() + 60_000);
+        double routed = reads("replica");
+        double replicaAcquired = acquired("replica");
+        double primaryAcquired = acquired("primary");
+
+        String cards = call("GET", "/api/antifraud/stolencard", "supp", null).body();
+        assertTrue(cards.contains(REPLICA_CARD), cards);
+        assertFalse(cards.contains(PRIMARY_CARD), cards);
+        assertEquals(routed + 1, reads("replica"));
+        assertTrue(acquired("replica") > replicaAcquired);
+        assertEquals(primaryAcquired, acquired("primary"));
+    }
+
+    @Test
+    void mutationsStayOnPrimary() throws Exception {
+        beat(System.currentTimeMillis() + 60_000);
+        double replicaAcquired = acquired("replica");
+        double primaryAcquired = acquired("primary");
+
+        assertEquals(200, call("POST", "/api/antifraud/stolencard", "supp",
+                "{\"number\":\"" + POSTED_CARD + "\"}").statusCode());
+        assertEquals(1, count(primary, POSTED_CARD));
+        assertEquals(0, count(replica, POSTED_CARD));
+        assertTrue(acquired("primary") > primaryAcquired);
+        assertEquals(replicaAcquired, acquired("replica"));
+    }
+
+    @Test
+    void staleReplicaFallsBackToPrimary() throws Exception {
+        beat(1);
+        double routed = reads("primary");
+        double replicaAcquired = acquired("replica");
+
+        String cards = call("GET", "/api/antifraud/stolencard", "supp", null).body();
+        assertTrue(cards.contains(PRIMARY_CARD), cards);
+        assertFalse(cards.contains(REPLICA_CARD), cards);
+        assertEquals(routed + 1, reads("primary"));
+        assertEquals(replicaAcquired, acquired("replica"));
+    }
+
+    // Sets the replica's heartbeat and has the monitor read it, as its next scheduled check would
+    private static void beat(long millis) {
+        replica.update("UPDATE replica_heartbeat SET beat = ? WHERE id = 1", millis);
+        monitor.check();
+        assertEquals(millis > System.currentTimeMillis(), monitor.isFresh());
+    }
+
+    private static double reads(String route) {
+        Counter counter = registry.find("antifraud.replica.reads").tag("route", route).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    private static double acquired(String pool) {
+        Timer timer = registry.find("hikaricp.connections.acquire").tag("pool", pool).timer();
+        return timer == null ? 0 : timer.count();
+    }
+
+    private static long count(JdbcTemplate database, String number) {
+        return database.queryForObject("SELECT COUNT(*) FROM stolen_card WHERE number = ?", Long.class, number);
+    }
+
+    private static HttpResponse<String> call(String method, String path, String user, String body)
+            throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body));
+        if (body != null) request.header("Content-Type", "application/json");
+        if (user != null) {
+            request.header("Authorization", "Basic " + Base64.getEncoder()
+                    .encodeToString((user + ":p").getBytes(StandardCharsets.UTF_8)));
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,268 @@
+package antifraud;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+
+// Each storage profile through the HTTP API: users, blacklists with a CIDR range, scoring with correlation, feedback,
+// history paging, batch posting and bulk import and export, then a second boot on the same database to check that
+// migrations, sequences and the in-memory caches carry on from the first, and a retention run keeping two days and
+// queries over the archive it writes. Both boots check the applied migrations and validate the entities against
+// the schema they built.
+class StorageSuiteTest {
+
+    private static final String CARD = "4000003305160034";
+    private static final String STOLEN = "4000003305160018";
+    private static final Pattern TRANSACTION_ID = Pattern.compile("\"transactionId\":(\\d+)");
+    private static final Pattern ID = Pattern.compile("\"id\":(\\d+)");
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private URI base;
+    private String profile;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void h2() throws Exception {
+        run("h2", "jdbc:h2:file:" + dir.resolve("suite"), "", List.of("1", "2", "3", "4", "5", "7"));
+    }
+
+    // From the binaries bundled with embedded-postgres, which like initdb will not run as root
+    @Test
+    void postgres() throws Exception {
+        assumeFalse("root".equals(System.getProperty("user.name")), "PostgreSQL will not run as root");
+        try (EmbeddedPostgres postgres = EmbeddedPostgres.start()) {
+            run("postgres", postgres.getJdbcUrl("postgres", "postgres"), "postgres",
+                    List.of("1", "2", "3", "4", "5", "6", "7"));
+        }
+    }
+
+    private void run(String profile, String url, String username, List<String> migrations) throws Exception {
+        this.profile = profile;
+        try (ConfigurableApplicationContext context = start(url, username)) {
+            checkSchema(context, migrations);
+            firstBoot();
+        }
+        try (ConfigurableApplicationContext context = start(url, username)) {
+            checkSchema(context, migrations);
+            secondBoot();
+        }
+    }
+
+    private ConfigurableApplicationContext start(String url, String username) {
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(AntiFraudApplication.class).run(
+                "--server.port=0",
+                "--spring.profiles.active=" + profile,
+                "--spring.datasource.url=" + url,
+                "--spring.datasource.username=" + username,
+                "--spring.datasource.password=",
+                "--antifraud.retention.days=2",
+                "--antifraud.archive.dir=" + dir.resolve("archive"),
+                "--spring.jpa.show-sql=false",
+                "--logging.level.root=WARN");
+        base = URI.create("http://localhost:" + context.getEnvironment().getProperty("local.server.port"));
+        return context;
+    }
+
+    // The context only starts once Hibernate has validated every entity against the migrated schema
+    private void checkSchema(ConfigurableApplicationContext context, List<String> migrations) {
+        assertEquals("validate", context.getEnvironment().getProperty("spring.jpa.hibernate.ddl-auto"));
+        Flyway flyway = context.getBean(Flyway.class);
+        List<String> applied = Arrays.stream(flyway.info().applied())
+                .map(migration -> migration.getVersion().getVersion()).toList();
+        assertEquals(migrations, applied);
+        assertEquals(0, flyway.info().pending().length);
+        assertTrue(flyway.validateWithResult().validationSuccessful, "migrations changed since they were applied");
+    }
+
+    private void firstBoot() throws Exception {
+        expect("register admin", call("POST", "/api/auth/user", null,
+                "{\"name\":\"A\",\"username\":\"admin\",\"password\":\"p\"}"), 201, "\"role\":\"ADMINISTRATOR\"");
+        expect("register merchant", call("POST", "/api/auth/user", null,
+                "{\"name\":\"M\",\"username\":\"merch\",\"password\":\"p\"}"), 201, "\"role\":\"MERCHANT\"");
+        expect("register support", call("POST", "/api/auth/user", null,
+                "{\"name\":\"S\",\"username\":\"supp\",\"password\":\"p\"}"), 201, "\"role\":\"MERCHANT\"");
+        expect("unlock merchant", call("PUT", "/api/auth/access", "admin",
+                "{\"username\":\"merch\",\"operation\":\"UNLOCK\"}"), 200, "unlocked");
+        expect("make support", call("PUT", "/api/auth/role", "admin",
+                "{\"username\":\"supp\",\"role\":\"SUPPORT\"}"), 200, "\"role\":\"SUPPORT\"");
+        expect("unlock support", call("PUT", "/api/auth/access", "admin",
+                "{\"username\":\"supp\",\"operation\":\"UNLOCK\"}"), 200, "unlocked");
+
+        expect("list ip", call("POST", "/api/antifraud/suspicious-ip", "supp", "{\"ip\":\"192.168.1.66\"}"),
+                200, "\"ip\":\"192.168.1.66\"");
+        expect("list range", call("POST", "/api/antifraud/suspicious-ip", "supp", "{\"ip\":\"10.1.0.0/16\"}"),
+                200, "\"ip\":\"10.1.0.0/16\"");
+        expect("list card", call("POST", "/api/antifraud/stolencard", "supp", "{\"number\":\"" + STOLEN + "\"}"),
+                200, "\"number\":\"" + STOLEN + "\"");
+
+        expect("allowed", post(100, "192.168.1.1", CARD, "EAP", "22T16:00"), 200, "\"result\":\"ALLOWED\"");
+        expect("manual amount", post(300, "192.168.1.1", CARD, "EAP", "22T16:01"), 200,
+                "\"result\":\"MANUAL_PROCESSING\",\"info\":\"amount\"");
+        expect("prohibited amount", post(2000, "192.168.1.1", CARD, "EAP", "22T16:02"), 200,
+                "\"result\":\"PROHIBITED\",\"info\":\"amount\"");
+        expect("suspicious ip", post(100, "192.168.1.66", CARD, "EAP", "22T16:03"), 200, "\"info\":\"ip");
+        expect("suspicious range", post(100, "10.1.2.3", CARD, "EAP", "22T16:04"), 200, "\"info\":\"ip");
+        expect("stolen card", post(100, "192.168.1.1", STOLEN, "EAP", "22T16:05"), 200, "\"info\":\"card-number");
+        post(100, "192.168.1.2", CARD, "ECA", "22T16:06");
+        expect("region correlation", post(100, "192.168.1.3", CARD, "HIC", "22T16:07"), 200, "region-correlation");
+        expect("batch", call("POST", "/api/antifraud/transactions/batch", "merch", "["
+                + transaction(100, "192.168.1.1", CARD, "EAP", "22T16:08") + ","
+                + transaction(100, "bad", CARD, "EAP", "22T16:08") + ","
+                + transaction(100, "192.168.1.1", STOLEN, "EAP", "22T16:09") + "]"), 200, "\"status\":400");
+
+        String history = call("GET", "/api/antifraud/history/" + CARD, "supp", null).body;
+        List<Long> ids = ids(TRANSACTION_ID, history);
+        check("card history", ids.size() == 8 && ascending(ids), "8 transactions in id order, got " + ids);
+        expect("feedback", call("PUT", "/api/antifraud/transaction", "supp",
+                "{\"transactionId\":" + ids.get(0) + ",\"feedback\":\"MANUAL_PROCESSING\"}"), 200,
+                "\"feedback\":\"MANUAL_PROCESSING\"");
+        // A day later, clear of the correlation checks: the feedback took the card's allowed limit to 140
+        expect("limit lowered", post(150, "192.168.1.1", CARD, "EAP", "23T16:00"), 200,
+                "\"result\":\"MANUAL_PROCESSING\",\"info\":\"amount\"");
+        List<Long> page = ids(TRANSACTION_ID,
+                call("GET", "/api/antifraud/history?afterId=" + ids.get(1) + "&limit=3", "supp", null).body);
+        check("history page", page.size() == 3 && page.get(0) > ids.get(1) && ascending(page),
+                "3 transactions after " + ids.get(1) + ", got " + page);
+
+        StringBuilder cards = new StringBuilder("number\n");
+        for (int i = 0; i < 1000; i++) cards.append(cardNumber(i)).append('\n');
+        cards.append(cardNumber(0)).append('\n').append(STOLEN).append('\n').append("123\n");
+        expect("import", call("POST", "/api/antifraud/stolencard/import", "supp", "text/csv", cards.toString()),
+                200, "\"accepted\":1000,\"duplicate\":2,\"invalid\":1");
+        Response export = call("GET", "/api/antifraud/stolencard/export", "supp", null);
+        check("export", export.status == 200 && export.body.lines().count() == 1001,
+                "1001 lines, got " + export.body.lines().count());
+        expect("list card after import", call("POST", "/api/antifraud/stolencard", "supp",
+                "{\"number\":\"" + cardNumber(1000) + "\"}"), 200, "\"number\":\"" + cardNumber(1000) + "\"");
+    }
+
+    private void secondBoot() throws Exception {
+        List<Long> before = ids(TRANSACTION_ID, call("GET", "/api/antifraud/history", "supp", null).body);
+        expect("blacklist reloaded", post(100, "192.168.1.1", STOLEN, "EAP", "24T16:00"), 200,
+                "\"info\":\"card-number\"");
+        expect("imported card reloaded", post(100, "192.168.1.1", cardNumber(500), "EAP", "24T16:01"), 200,
+                "\"info\":\"card-number\"");
+        expect("range reloaded", post(100, "10.1.200.1", CARD, "EAP", "24T16:02"), 200, "\"info\":\"ip");
+        expect("limit reloaded", post(150, "192.168.1.1", CARD, "EAP", "24T16:03"), 200,
+                "\"result\":\"MANUAL_PROCESSING\",\"info\":\"amount\"");
+        List<Long> after = ids(TRANSACTION_ID, call("GET", "/api/antifraud/history", "supp", null).body);
+        check("transaction ids continue", after.size() == before.size() + 4 && ascending(after),
+                before.size() + 4 + " transactions in id order, got " + after);
+
+        // Only the day-22 transactions without feedback are older than the 23rd and 24th
+        expect("partitioned", call("GET", "/actuator/retention", "supp", null), 200,
+                "\"partitioned\":" + profile.equals("postgres"));
+        Response retention = call("POST", "/actuator/retention", "supp", null);
+        List<Long> kept = ids(TRANSACTION_ID, call("GET", "/api/antifraud/history", "supp", null).body);
+        check("retention", retention.body.contains("\"archived\":" + (after.size() - kept.size()))
+                && kept.size() == 6 && kept.contains(after.get(0)), "all but 6 archived, got " + retention.body.strip()
+                + " and " + kept);
+        List<Long> archived = ids(TRANSACTION_ID, call("GET", "/api/antifraud/history/archive", "supp", null).body);
+        List<Long> together = new ArrayList<>(archived);
+        together.addAll(kept);
+        together.sort(null);
+        check("archive", ascending(archived) && together.equals(after), "the rest of " + after + ", got " + archived);
+        List<Long> card = ids(TRANSACTION_ID,
+                call("GET", "/api/antifraud/history/archive?number=" + CARD + "&limit=2", "supp", null).body);
+        check("archive page", card.size() == 2 && card.get(0) > after.get(0) && ascending(card),
+                "2 archived transactions of the card, got " + card);
+
+        expect("register after restart", call("POST", "/api/auth/user", null,
+                "{\"name\":\"N\",\"username\":\"next\",\"password\":\"p\"}"), 201, "\"role\":\"MERCHANT\"");
+        List<Long> users = ids(ID, call("GET", "/api/auth/list", "admin", null).body);
+        check("user ids continue", users.size() == 4 && ascending(users), "4 users in id order, got " + users);
+        expect("list card after restart", call("POST", "/api/antifraud/stolencard", "supp",
+                "{\"number\":\"" + cardNumber(1001) + "\"}"), 200, "\"number\":\"" + cardNumber(1001) + "\"");
+    }
+
+    // time is day of January 2022 and time of day, "22T16:00"
+    private Response post(long amount, String ip, String number, String region, String time) throws Exception {
+        return call("POST", "/api/antifraud/transaction", "merch", transaction(amount, ip, number, region, time));
+    }
+
+    private static String transaction(long amount, String ip, String number, String region, String time) {
+        return "{\"amount\":" + amount + ",\"ip\":\"" + ip + "\",\"number\":\"" + number + "\",\"region\":\""
+                + region + "\",\"date\":\"2022-01-" + time + ":00\"}";
+    }
+
+    private Response call(String method, String path, String user, String body) throws Exception {
+        return call(method, path, user, "application/json", body);
+    }
+
+    private Response call(String method, String path, String user, String contentType, String body) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(path))
+                .method(method, body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofString(body));
+        if (body != null) request.header("Content-Type", contentType);
+        if (user != null) {
+            request.header("Authorization", "Basic " + Base64.getEncoder()
+                    .encodeToString((user + ":p").getBytes(StandardCharsets.UTF_8)));
+        }
+        HttpResponse<String> response = client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+        // The service indents its JSON; the checks match it without whitespace
+        String text = method.equals("GET") && path.endsWith("/export") ? response.body()
+                : response.body().replaceAll("\\s", "");
+        return new Response(response.statusCode(), text);
+    }
+
+    private void expect(String name, Response response, int status, String fragment) {
+        check(name, response.status == status && response.body.contains(fragment),
+                status + " with " + fragment + ", got " + response.status + " " + response.body);
+    }
+
+    private void check(String name, boolean passed, String expected) {
+        assertTrue(passed, profile + " " + name + ": expected " + expected);
+    }
+
+    private static List<Long> ids(Pattern pattern, String body) {
+        List<Long> ids = new ArrayList<>();
+        for (Matcher matcher = pattern.matcher(body); matcher.find(); ) ids.add(Long.parseLong(matcher.group(1)));
+        return ids;
+    }
+
+    private static boolean ascending(List<Long> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            if (ids.get(i) <= ids.get(i - 1)) return false;
+        }
+        return true;
+    }
+
+    // 16 digits: 5, the index, then the Luhn check digit
+    private static String cardNumber(int id) {
+        String body = "5" + String.format("%014d", id);
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            int digit = body.charAt(body.length() - 1 - i) - '0';
+            if (i % 2 == 0) {
+                digit *= 2;
+                if (digit > 9) digit -= 9;
+            }
+            sum += digit;
+        }
+        return body + (10 - sum % 10) % 10;
+    }
+
+    private record Response(int status, String body) {}
+}